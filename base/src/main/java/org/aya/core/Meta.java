@@ -14,6 +14,7 @@ import org.aya.generic.Arg;
 import org.aya.generic.Constants;
 import org.aya.ref.Var;
 import org.aya.tyck.TyckState;
+import org.aya.tyck.env.LocalSnapshot;
 import org.aya.util.error.SourcePos;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,30 +25,35 @@ import org.jetbrains.annotations.Nullable;
  * @implNote Do not override equals or hashCode
  */
 public final class Meta implements Var {
-  public final @NotNull ImmutableSeq<Term.Param> contextTele;
+  /** Captured from the context where the meta is created */
+  public final @NotNull LocalSnapshot context;
   public final @NotNull ImmutableSeq<Term.Param> telescope;
   public final @NotNull String name;
   public final @Nullable Term result;
   public final @NotNull SourcePos sourcePos;
   public final @NotNull MutableList<Tuple2<Subst, Term>> conditions = MutableList.create();
 
+  public @NotNull ImmutableSeq<Term.Param> contextTele() {
+    return context.telescope();
+  }
+
   public SeqView<Term.Param> fullTelescope() {
-    return contextTele.view().concat(telescope);
+    return contextTele().view().concat(telescope);
   }
 
   public boolean solve(@NotNull TyckState state, @NotNull Term t) {
     if (t.findUsages(this) > 0) return false;
-    state.metas().put(this, t);
+    state.solve(this, t);
     return true;
   }
 
   private Meta(
-    @NotNull ImmutableSeq<Term.Param> contextTele,
+    @NotNull LocalSnapshot context,
     @NotNull ImmutableSeq<Term.Param> telescope,
     @NotNull String name, @Nullable Term result,
     @NotNull SourcePos sourcePos
   ) {
-    this.contextTele = contextTele;
+    this.context = context;
     this.telescope = telescope;
     this.name = name;
     this.result = result;
@@ -55,14 +61,14 @@ public final class Meta implements Var {
   }
 
   public static @NotNull Meta from(
-    @NotNull ImmutableSeq<Term.Param> contextTele, @NotNull String name,
+    @NotNull LocalSnapshot context, @NotNull String name,
     @Nullable Term result, @NotNull SourcePos sourcePos
   ) {
     if (result instanceof FormTerm.Pi pi) {
       var buf = MutableList.<Term.Param>create();
       var r = pi.parameters(buf);
-      return new Meta(contextTele, buf.toImmutableSeq(), name, r, sourcePos);
-    } else return new Meta(contextTele, ImmutableSeq.empty(), name, result, sourcePos);
+      return new Meta(context, buf.toImmutableSeq(), name, r, sourcePos);
+    } else return new Meta(context, ImmutableSeq.empty(), name, result, sourcePos);
   }
 
   public @NotNull FormTerm.Pi asPi(
@@ -70,8 +76,8 @@ public final class Meta implements Var {
     int ulift, @NotNull ImmutableSeq<Arg<Term>> contextArgs
   ) {
     assert telescope.isEmpty();
-    var domVar = Meta.from(contextTele, domName, result, sourcePos);
-    var codVar = Meta.from(contextTele, codName, result, sourcePos);
+    var domVar = Meta.from(context, domName, result, sourcePos);
+    var codVar = Meta.from(context, codName, result, sourcePos);
     var dom = new CallTerm.Hole(domVar, ulift, contextArgs, ImmutableSeq.empty());
     var cod = new CallTerm.Hole(codVar, ulift, contextArgs, ImmutableSeq.empty());
     var domParam = new Term.Param(Constants.randomlyNamed(sourcePos), dom, explicit);
@@ -10,9 +10,11 @@ import org.aya.core.term.Term;
 import org.aya.generic.Modifier;
 import org.aya.ref.DefVar;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.EnumSet;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
@@ -20,7 +22,9 @@ import java.util.function.BiFunction;
 public final class FnDef extends UserDef {
   public final @NotNull EnumSet<Modifier> modifiers;
   public final @NotNull DefVar<FnDef, Decl.FnDecl> ref;
-  public final @NotNull Either<Term, ImmutableSeq<Matching>> body;
+  private volatile @Nullable Either<Term, ImmutableSeq<Matching>> body;
+  /** Non-null iff the body is not yet computed, see {@link org.aya.core.serde.SerDef.Fn} */
+  private @Nullable Supplier<Either<Term, ImmutableSeq<Matching>>> lazyBody;
 
   public FnDef(
     @NotNull DefVar<FnDef, Decl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
@@ -35,6 +39,33 @@ public final class FnDef extends UserDef {
     this.body = body;
   }
 
+  /** @param body computed on first call to {@link #body()} */
+  public FnDef(
+    @NotNull DefVar<FnDef, Decl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
+    @NotNull Term result,
+    @NotNull EnumSet<Modifier> modifiers,
+    @NotNull Supplier<Either<Term, ImmutableSeq<Matching>>> body
+  ) {
+    super(telescope, result);
+    this.modifiers = modifiers;
+    ref.core = this;
+    this.ref = ref;
+    this.lazyBody = body;
+  }
+
+  public @NotNull Either<Term, ImmutableSeq<Matching>> body() {
+    var body = this.body;
+    if (body != null) return body;
+    synchronized (this) {
+      if (this.body == null) {
+        assert lazyBody != null;
+        this.body = lazyBody.get();
+        lazyBody = null;
+      }
+      return this.body;
+    }
+  }
+
   public static <T> BiFunction<Term, Either<Term, ImmutableSeq<Matching>>, T>
   factory(BiFunction<Term, Either<Term, ImmutableSeq<Matching>>, T> function) {
     return function;
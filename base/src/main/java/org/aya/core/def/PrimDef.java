@@ -79,6 +79,7 @@ public final class PrimDef extends TopLevelDef {
     }
   }
 
+  /** Thread-safe, as library modules can be tycked in parallel. */
   public static class Factory {
     private final class Initializer {
       public @NotNull CallTerm.Prim intervalCall() {
@@ -220,22 +221,22 @@ public final class PrimDef extends TopLevelDef {
         .toImmutableMap();
     }
 
-    public @NotNull PrimDef factory(@NotNull ID name, @NotNull DefVar<PrimDef, Decl.PrimDecl> ref) {
+    public synchronized @NotNull PrimDef factory(@NotNull ID name, @NotNull DefVar<PrimDef, Decl.PrimDecl> ref) {
       assert !have(name);
       var rst = SEEDS.get(name).supply(ref);
       defs.put(name, rst);
       return rst;
     }
 
-    public @NotNull Option<PrimDef> getOption(@NotNull ID name) {
+    public synchronized @NotNull Option<PrimDef> getOption(@NotNull ID name) {
       return Option.of(defs.get(name));
     }
 
-    public boolean have(@NotNull ID name) {
+    public synchronized boolean have(@NotNull ID name) {
       return defs.containsKey(name);
     }
 
-    public @NotNull PrimDef getOrCreate(@NotNull ID name, @NotNull DefVar<PrimDef, Decl.PrimDecl> ref) {
+    public synchronized @NotNull PrimDef getOrCreate(@NotNull ID name, @NotNull DefVar<PrimDef, Decl.PrimDecl> ref) {
       return getOption(name).getOrElse(() -> factory(name, ref));
     }
 
@@ -258,7 +259,7 @@ public final class PrimDef extends TopLevelDef {
       return false;
     }
 
-    public void clear() {
+    public synchronized void clear() {
       defs.clear();
     }
   }
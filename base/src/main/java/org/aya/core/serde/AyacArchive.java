@@ -0,0 +1,119 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import org.aya.concrete.stmt.QualifiedID;
+import org.aya.generic.Constants;
+import org.aya.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+/**
+ * The compiled cores of a library packed into one file:
+ * <pre>
+ * magic "AYAA" (4 bytes), version of {@link AyacFormat}, entry count
+ * table of contents: (byte length, UTF-8 bytes of the module name, offset, length) for each entry
+ * the compiled cores, offsets are relative to the end of the table
+ * </pre>
+ * Integers other than the magic are varints, as in {@link AyacFormat}.
+ * The archive is read into memory at once, so the file is not held open,
+ * and a core is decoded only when its module is requested.
+ */
+public final class AyacArchive {
+  public static final @NotNull String FILE_NAME = "library.ayaa";
+  /** "AYAA" in ASCII, written in big-endian */
+  public static final int MAGIC = 0x41594141;
+
+  private record Entry(int offset, int length) {
+  }
+
+  private final @NotNull ByteBuffer data;
+  private final @NotNull MutableMap<String, Entry> toc;
+
+  private AyacArchive(@NotNull ByteBuffer data, @NotNull MutableMap<String, Entry> toc) {
+    this.data = data;
+    this.toc = toc;
+  }
+
+  public static @NotNull AyacArchive open(@NotNull Path path) throws IOException {
+    var buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+    try {
+      if (buffer.getInt() != MAGIC) throw new SerDef.DeserializeException("Not a compiled library archive: " + path);
+      if (AyacFormat.varInt(buffer) != AyacFormat.VERSION) throw new SerDef.DeserializeException(
+        "Compiled library archive " + path + " is incompatible, please rebuild");
+      var count = AyacFormat.varInt(buffer);
+      var toc = MutableMap.<String, Entry>create();
+      for (int i = 0; i < count; i++) {
+        var name = new byte[AyacFormat.varInt(buffer)];
+        buffer.get(name);
+        var offset = AyacFormat.varInt(buffer);
+        toc.set(new String(name, StandardCharsets.UTF_8), new Entry(offset, AyacFormat.varInt(buffer)));
+      }
+      return new AyacArchive(buffer.slice(), toc);
+    } catch (BufferUnderflowException e) {
+      throw new SerDef.DeserializeException("Corrupted compiled library archive: " + path);
+    }
+  }
+
+  public boolean contains(@NotNull ImmutableSeq<String> mod) {
+    return toc.containsKey(QualifiedID.join(mod));
+  }
+
+  /** @return the compiled core of the module, or null if the module is not in this archive */
+  public @Nullable ByteBuffer bytes(@NotNull ImmutableSeq<String> mod) {
+    var entry = toc.getOrNull(QualifiedID.join(mod));
+    if (entry == null) return null;
+    return data.slice(entry.offset, entry.length);
+  }
+
+  /** @return null if the module is not in this archive */
+  public @Nullable CompiledAya read(@NotNull ImmutableSeq<String> mod) {
+    var bytes = bytes(mod);
+    return bytes == null ? null : AyacFormat.read(bytes);
+  }
+
+  /** Pack all compiled cores under the output directory of a library. */
+  public static void pack(@NotNull Path outDir, @NotNull Path archive) throws IOException {
+    var cores = FileUtil.collectSource(outDir, Constants.AYAC_POSTFIX);
+    var blobs = MutableList.<byte[]>create();
+    var toc = new ByteArrayOutputStream();
+    var offset = 0;
+    for (var core : cores) {
+      var relative = outDir.relativize(core);
+      var fileName = relative.getFileName().toString();
+      var mod = IntStream.range(0, relative.getNameCount() - 1)
+        .mapToObj(i -> relative.getName(i).toString())
+        .collect(ImmutableSeq.factory())
+        .appended(fileName.substring(0, fileName.length() - Constants.AYAC_POSTFIX.length()));
+      var blob = Files.readAllBytes(core);
+      var name = QualifiedID.join(mod).getBytes(StandardCharsets.UTF_8);
+      AyacFormat.varInt(toc, name.length);
+      toc.writeBytes(name);
+      AyacFormat.varInt(toc, offset);
+      AyacFormat.varInt(toc, blob.length);
+      offset += blob.length;
+      blobs.append(blob);
+    }
+    var head = new ByteArrayOutputStream();
+    head.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array());
+    AyacFormat.varInt(head, AyacFormat.VERSION);
+    AyacFormat.varInt(head, cores.size());
+    head.writeBytes(toc.toByteArray());
+    try (var out = Files.newOutputStream(archive)) {
+      head.writeTo(out);
+      for (var blob : blobs) out.write(blob);
+    }
+  }
+}
@@ -0,0 +1,593 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.control.Either;
+import kala.control.Option;
+import kala.tuple.Tuple;
+import org.aya.core.def.PrimDef;
+import org.aya.generic.Modifier;
+import org.aya.util.binop.Assoc;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The binary format of .ayac files:
+ * <pre>
+ * magic "AYAC" (4 bytes), version (varint)
+ * string pool: count, then (byte length, UTF-8 bytes) for each
+ * module pool: count, then (length, string indices) for each
+ * name pool:   count, then (module index, string index) for each
+ * imports, exports, re-exports, definitions, operators
+ * </pre>
+ * Other integers are varints, signed ones are zigzag-encoded.
+ * Names are always referred to by their index in the pools.
+ *
+ * @see CompiledAya
+ */
+public final class AyacFormat {
+  /** "AYAC" in ASCII, written in big-endian */
+  public static final int MAGIC = 0x41594143;
+  /** Bump this when the format changes, so that stale cores are rebuilt */
+  public static final int VERSION = 2;
+
+  private static final byte PI = 0, SIGMA = 1, UNIV = 2, REF = 3, LAM = 4, NEW = 5, PROJ = 6, APP = 7,
+    STRUCT_CALL = 8, FN_CALL = 9, DATA_CALL = 10, PRIM_CALL = 11, CON_CALL = 12, TUP = 13, ACCESS = 14, FIELD_REF = 15;
+  private static final byte PAT_ABSURD = 0, PAT_TUPLE = 1, PAT_BIND = 2, PAT_PRIM = 3, PAT_CTOR = 4;
+  private static final byte DEF_FN = 0, DEF_CTOR = 1, DEF_DATA = 2, DEF_FIELD = 3, DEF_STRUCT = 4, DEF_PRIM = 5;
+
+  private AyacFormat() {
+  }
+
+  public static byte @NotNull [] toBytes(@NotNull CompiledAya compiledAya) {
+    var writer = new Writer();
+    writer.compiled(compiledAya);
+    return writer.finish();
+  }
+
+  public static @NotNull CompiledAya read(@NotNull Path path) throws IOException {
+    return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+  }
+
+  /** Reads from the current position of the buffer. */
+  public static @NotNull CompiledAya read(@NotNull ByteBuffer buffer) {
+    try {
+      return new Reader(buffer).compiled();
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new SerDef.DeserializeException("Corrupted compiled core: " + e.getMessage());
+    }
+  }
+
+  private static final class Writer {
+    private final @NotNull ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final @NotNull MutableMap<String, Integer> strings = MutableMap.create();
+    private final @NotNull MutableList<String> stringPool = MutableList.create();
+    private final @NotNull MutableMap<ImmutableSeq<String>, Integer> modules = MutableMap.create();
+    private final @NotNull MutableList<ImmutableSeq<String>> modulePool = MutableList.create();
+    private final @NotNull MutableMap<SerDef.QName, Integer> names = MutableMap.create();
+    private final @NotNull MutableList<SerDef.QName> namePool = MutableList.create();
+
+    private byte @NotNull [] finish() {
+      var head = new ByteArrayOutputStream();
+      head.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array());
+      varInt(head, VERSION);
+      // Interning may add entries to earlier pools, so those are written later
+      namePool.forEach(name -> module(name.mod()));
+      var pools = new ByteArrayOutputStream();
+      varInt(pools, modulePool.size());
+      modulePool.forEach(mod -> {
+        varInt(pools, mod.size());
+        mod.forEach(s -> varInt(pools, string(s)));
+      });
+      varInt(pools, namePool.size());
+      namePool.forEach(name -> {
+        varInt(pools, module(name.mod()));
+        varInt(pools, string(name.name()));
+      });
+      varInt(head, stringPool.size());
+      stringPool.forEach(s -> {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        varInt(head, bytes.length);
+        head.writeBytes(bytes);
+      });
+      head.writeBytes(pools.toByteArray());
+      head.writeBytes(out.toByteArray());
+      return head.toByteArray();
+    }
+
+    private int string(@NotNull String s) {
+      return strings.getOrPut(s, () -> {
+        stringPool.append(s);
+        return stringPool.size() - 1;
+      });
+    }
+
+    private int module(@NotNull ImmutableSeq<String> mod) {
+      return modules.getOrPut(mod, () -> {
+        modulePool.append(mod);
+        return modulePool.size() - 1;
+      });
+    }
+
+    private void moduleRef(@NotNull ImmutableSeq<String> mod) {
+      varInt(out, module(mod));
+    }
+
+    private void name(@NotNull SerDef.QName name) {
+      varInt(out, names.getOrPut(name, () -> {
+        namePool.append(name);
+        return namePool.size() - 1;
+      }));
+    }
+
+    private void varInt(int value) {
+      varInt(out, value);
+    }
+
+    private void signed(int value) {
+      varInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private void bool(boolean value) {
+      out.write(value ? 1 : 0);
+    }
+
+    private <T> void seq(@NotNull ImmutableSeq<T> seq, @NotNull Consumer<T> element) {
+      varInt(seq.size());
+      seq.forEach(element);
+    }
+
+    private void compiled(@NotNull CompiledAya compiledAya) {
+      seq(compiledAya.imports(), this::moduleRef);
+      seq(compiledAya.exports(), this::name);
+      seq(compiledAya.reExports(), this::moduleRef);
+      seq(compiledAya.serDefs(), this::def);
+      seq(compiledAya.serOps(), this::op);
+    }
+
+    private void simpVar(@NotNull SerTerm.SimpVar var) {
+      varInt(var.var());
+      varInt(string(var.name()));
+    }
+
+    private void param(@NotNull SerTerm.SerParam param) {
+      out.write((param.explicit() ? 1 : 0) | (param.pattern() ? 2 : 0));
+      simpVar(param.var());
+      term(param.term());
+    }
+
+    private void arg(@NotNull SerTerm.SerArg arg) {
+      bool(arg.explicit());
+      term(arg.arg());
+    }
+
+    private void call(@NotNull SerDef.QName name, @NotNull SerTerm.CallData data) {
+      name(name);
+      callData(data);
+    }
+
+    private void callData(@NotNull SerTerm.CallData data) {
+      signed(data.ulift());
+      seq(data.args(), this::arg);
+    }
+
+    private void term(@NotNull SerTerm term) {
+      switch (term) {
+        case SerTerm.Pi pi -> {
+          out.write(PI);
+          param(pi.param());
+          term(pi.body());
+        }
+        case SerTerm.Sigma sigma -> {
+          out.write(SIGMA);
+          seq(sigma.params(), this::param);
+        }
+        case SerTerm.Univ univ -> {
+          out.write(UNIV);
+          signed(univ.ulift());
+        }
+        case SerTerm.Ref ref -> {
+          out.write(REF);
+          simpVar(ref.var());
+          signed(ref.ulift());
+        }
+        case SerTerm.Lam lam -> {
+          out.write(LAM);
+          param(lam.param());
+          term(lam.body());
+        }
+        case SerTerm.New neu -> {
+          out.write(NEW);
+          call(neu.call().name(), neu.call().data());
+          varInt(neu.map().size());
+          neu.map().forEach((name, body) -> {
+            name(name);
+            term(body);
+          });
+        }
+        case SerTerm.Proj proj -> {
+          out.write(PROJ);
+          term(proj.of());
+          signed(proj.ix());
+        }
+        case SerTerm.App app -> {
+          out.write(APP);
+          term(app.of());
+          arg(app.arg());
+        }
+        case SerTerm.StructCall call -> {
+          out.write(STRUCT_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.FnCall call -> {
+          out.write(FN_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.DataCall call -> {
+          out.write(DATA_CALL);
+          call(call.name(), call.data());
+        }
+        case SerTerm.PrimCall call -> {
+          out.write(PRIM_CALL);
+          varInt(call.id().ordinal());
+          call(call.name(), call.data());
+        }
+        case SerTerm.ConCall call -> {
+          out.write(CON_CALL);
+          name(call.dataRef());
+          name(call.selfRef());
+          callData(call.dataArgs());
+          seq(call.args(), this::arg);
+        }
+        case SerTerm.Tup tup -> {
+          out.write(TUP);
+          seq(tup.components(), this::term);
+        }
+        case SerTerm.Access access -> {
+          out.write(ACCESS);
+          term(access.of());
+          name(access.ref());
+          seq(access.structArgs(), this::arg);
+          seq(access.fieldArgs(), this::arg);
+        }
+        case SerTerm.FieldRef ref -> {
+          out.write(FIELD_REF);
+          name(ref.name());
+          signed(ref.ulift());
+        }
+      }
+    }
+
+    private void pat(@NotNull SerPat pat) {
+      switch (pat) {
+        case SerPat.Absurd absurd -> {
+          out.write(PAT_ABSURD);
+          bool(absurd.explicit());
+        }
+        case SerPat.Tuple tuple -> {
+          out.write(PAT_TUPLE);
+          bool(tuple.explicit());
+          seq(tuple.pats(), this::pat);
+        }
+        case SerPat.Bind bind -> {
+          out.write(PAT_BIND);
+          bool(bind.explicit());
+          simpVar(bind.var());
+          term(bind.ty());
+        }
+        case SerPat.Prim prim -> {
+          out.write(PAT_PRIM);
+          bool(prim.explicit());
+          name(prim.name());
+        }
+        case SerPat.Ctor ctor -> {
+          out.write(PAT_CTOR);
+          bool(ctor.explicit());
+          name(ctor.name());
+          seq(ctor.params(), this::pat);
+          call(ctor.ty().name(), ctor.ty().data());
+        }
+      }
+    }
+
+    private void matchy(@NotNull SerPat.Matchy matchy) {
+      seq(matchy.pats(), this::pat);
+      term(matchy.body());
+    }
+
+    private void def(@NotNull SerDef def) {
+      switch (def) {
+        case SerDef.Fn fn -> {
+          out.write(DEF_FN);
+          name(fn.name());
+          seq(fn.telescope(), this::param);
+          if (fn.body().isLeft()) {
+            out.write(0);
+            term(fn.body().getLeftValue());
+          } else {
+            out.write(1);
+            seq(fn.body().getRightValue(), this::matchy);
+          }
+          var modifiers = 0;
+          for (var modifier : fn.modifiers()) modifiers |= 1 << modifier.ordinal();
+          varInt(modifiers);
+          term(fn.result());
+        }
+        case SerDef.Ctor ctor -> {
+          out.write(DEF_CTOR);
+          ctor(ctor);
+        }
+        case SerDef.Data data -> {
+          out.write(DEF_DATA);
+          name(data.name());
+          seq(data.telescope(), this::param);
+          signed(data.resultLift());
+          seq(data.bodies(), this::ctor);
+        }
+        case SerDef.Field field -> {
+          out.write(DEF_FIELD);
+          field(field);
+        }
+        case SerDef.Struct struct -> {
+          out.write(DEF_STRUCT);
+          name(struct.name());
+          seq(struct.telescope(), this::param);
+          signed(struct.resultLift());
+          seq(struct.fields(), this::field);
+        }
+        case SerDef.Prim prim -> {
+          out.write(DEF_PRIM);
+          moduleRef(prim.module());
+          varInt(prim.name().ordinal());
+        }
+      }
+    }
+
+    private void ctor(@NotNull SerDef.Ctor ctor) {
+      name(ctor.data());
+      name(ctor.self());
+      seq(ctor.pats(), this::pat);
+      seq(ctor.ownerTele(), this::param);
+      seq(ctor.selfTele(), this::param);
+      seq(ctor.clauses(), this::matchy);
+      term(ctor.result());
+      bool(ctor.coerce());
+    }
+
+    private void field(@NotNull SerDef.Field field) {
+      name(field.struct());
+      name(field.self());
+      seq(field.ownerTele(), this::param);
+      seq(field.selfTele(), this::param);
+      term(field.result());
+      seq(field.clauses(), this::matchy);
+      bool(field.body().isDefined());
+      if (field.body().isDefined()) term(field.body().get());
+      bool(field.coerce());
+    }
+
+    private void op(@NotNull SerDef.SerOp op) {
+      name(op.name());
+      varInt(op.assoc().ordinal());
+      signed(op.argc());
+      seq(op.bind().loosers(), this::name);
+      seq(op.bind().tighters(), this::name);
+    }
+  }
+
+  static void varInt(@NotNull ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Reads a varint from the current position of the buffer. */
+  static int varInt(@NotNull ByteBuffer buffer) {
+    int result = 0, shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      result |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
+  private static final class Reader {
+    private final @NotNull ByteBuffer buffer;
+    private final @NotNull String[] strings;
+    private final @NotNull ImmutableSeq<ImmutableSeq<String>> modules;
+    private final @NotNull ImmutableSeq<SerDef.QName> names;
+
+    private Reader(@NotNull ByteBuffer buffer) {
+      this.buffer = buffer;
+      if (buffer.getInt() != MAGIC) throw new SerDef.DeserializeException("Not a compiled core");
+      var version = varInt();
+      if (version != VERSION) throw new SerDef.DeserializeException(
+        "Compiled core version " + version + " is incompatible with " + VERSION + ", please rebuild");
+      strings = new String[varInt()];
+      for (int i = 0; i < strings.length; i++) {
+        var bytes = new byte[varInt()];
+        buffer.get(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      modules = seq(() -> seq(this::string));
+      names = seq(() -> new SerDef.QName(modules.get(varInt()), string()));
+    }
+
+    private int varInt() {
+      return AyacFormat.varInt(buffer);
+    }
+
+    private int signed() {
+      var n = varInt();
+      return (n >>> 1) ^ -(n & 1);
+    }
+
+    private boolean bool() {
+      return buffer.get() != 0;
+    }
+
+    private @NotNull String string() {
+      return strings[varInt()];
+    }
+
+    private @NotNull ImmutableSeq<String> moduleRef() {
+      return modules.get(varInt());
+    }
+
+    private @NotNull SerDef.QName name() {
+      return names.get(varInt());
+    }
+
+    private <T> @NotNull ImmutableSeq<T> seq(@NotNull Supplier<T> element) {
+      var size = varInt();
+      var list = MutableList.<T>create();
+      for (int i = 0; i < size; i++) list.append(element.get());
+      return list.toImmutableSeq();
+    }
+
+    private @NotNull CompiledAya compiled() {
+      var imports = seq(this::moduleRef);
+      var exports = seq(this::name);
+      var reExports = seq(this::moduleRef);
+      var serDefs = seq(this::def);
+      var serOps = seq(this::op);
+      return new CompiledAya(imports, exports, reExports, serDefs, serOps);
+    }
+
+    private @NotNull SerTerm.SimpVar simpVar() {
+      var id = varInt();
+      return new SerTerm.SimpVar(id, string());
+    }
+
+    private @NotNull SerTerm.SerParam param() {
+      var flags = buffer.get();
+      var simpVar = simpVar();
+      return new SerTerm.SerParam((flags & 1) != 0, (flags & 2) != 0, simpVar, term());
+    }
+
+    private @NotNull SerTerm.SerArg arg() {
+      var explicit = bool();
+      return new SerTerm.SerArg(term(), explicit);
+    }
+
+    private @NotNull SerTerm.CallData callData() {
+      var ulift = signed();
+      return new SerTerm.CallData(ulift, seq(this::arg));
+    }
+
+    private @NotNull SerTerm term() {
+      return switch (buffer.get()) {
+        case PI -> new SerTerm.Pi(param(), term());
+        case SIGMA -> new SerTerm.Sigma(seq(this::param));
+        case UNIV -> new SerTerm.Univ(signed());
+        case REF -> new SerTerm.Ref(simpVar(), signed());
+        case LAM -> new SerTerm.Lam(param(), term());
+        case NEW -> {
+          var call = new SerTerm.StructCall(name(), callData());
+          var fields = seq(() -> Tuple.of(name(), term()));
+          yield new SerTerm.New(call, ImmutableMap.from(fields));
+        }
+        case PROJ -> new SerTerm.Proj(term(), signed());
+        case APP -> new SerTerm.App(term(), arg());
+        case STRUCT_CALL -> new SerTerm.StructCall(name(), callData());
+        case FN_CALL -> new SerTerm.FnCall(name(), callData());
+        case DATA_CALL -> dataCall();
+        case PRIM_CALL -> {
+          var id = PrimDef.ID.values()[varInt()];
+          yield new SerTerm.PrimCall(name(), id, callData());
+        }
+        case CON_CALL -> new SerTerm.ConCall(name(), name(), callData(), seq(this::arg));
+        case TUP -> new SerTerm.Tup(seq(this::term));
+        case ACCESS -> new SerTerm.Access(term(), name(), seq(this::arg), seq(this::arg));
+        case FIELD_REF -> new SerTerm.FieldRef(name(), signed());
+        default -> throw new SerDef.DeserializeException("Unknown term tag");
+      };
+    }
+
+    private @NotNull SerTerm.DataCall dataCall() {
+      return new SerTerm.DataCall(name(), callData());
+    }
+
+    private @NotNull SerPat pat() {
+      return switch (buffer.get()) {
+        case PAT_ABSURD -> new SerPat.Absurd(bool());
+        case PAT_TUPLE -> new SerPat.Tuple(bool(), seq(this::pat));
+        case PAT_BIND -> new SerPat.Bind(bool(), simpVar(), term());
+        case PAT_PRIM -> new SerPat.Prim(bool(), name());
+        case PAT_CTOR -> new SerPat.Ctor(bool(), name(), seq(this::pat), dataCall());
+        default -> throw new SerDef.DeserializeException("Unknown pattern tag");
+      };
+    }
+
+    private @NotNull SerPat.Matchy matchy() {
+      return new SerPat.Matchy(seq(this::pat), term());
+    }
+
+    private @NotNull SerDef def() {
+      return switch (buffer.get()) {
+        case DEF_FN -> {
+          var name = name();
+          var telescope = seq(this::param);
+          Either<SerTerm, ImmutableSeq<SerPat.Matchy>> body = buffer.get() == 0
+            ? Either.left(term())
+            : Either.right(seq(this::matchy));
+          var bits = varInt();
+          var modifiers = EnumSet.noneOf(Modifier.class);
+          for (var modifier : Modifier.values())
+            if ((bits & (1 << modifier.ordinal())) != 0) modifiers.add(modifier);
+          yield new SerDef.Fn(name, telescope, body, modifiers, term());
+        }
+        case DEF_CTOR -> ctor();
+        case DEF_DATA -> new SerDef.Data(name(), seq(this::param), signed(), seq(this::ctor));
+        case DEF_FIELD -> field();
+        case DEF_STRUCT -> new SerDef.Struct(name(), seq(this::param), signed(), seq(this::field));
+        case DEF_PRIM -> new SerDef.Prim(moduleRef(), PrimDef.ID.values()[varInt()]);
+        default -> throw new SerDef.DeserializeException("Unknown definition tag");
+      };
+    }
+
+    private @NotNull SerDef.Ctor ctor() {
+      return new SerDef.Ctor(name(), name(), seq(this::pat), seq(this::param), seq(this::param),
+        seq(this::matchy), term(), bool());
+    }
+
+    private @NotNull SerDef.Field field() {
+      var struct = name();
+      var self = name();
+      var ownerTele = seq(this::param);
+      var selfTele = seq(this::param);
+      var result = term();
+      var clauses = seq(this::matchy);
+      var body = bool() ? Option.some(term()) : Option.<SerTerm>none();
+      return new SerDef.Field(struct, self, ownerTele, selfTele, result, clauses, body, bool());
+    }
+
+    private @NotNull SerDef.SerOp op() {
+      var name = name();
+      var assoc = Assoc.values()[varInt()];
+      var argc = signed();
+      var loosers = seq(this::name);
+      var tighters = seq(this::name);
+      var bind = loosers.isEmpty() && tighters.isEmpty() ? SerDef.SerBind.EMPTY : new SerDef.SerBind(loosers, tighters);
+      return new SerDef.SerOp(name, assoc, argc, bind);
+    }
+  }
+}
@@ -28,6 +28,7 @@ import org.aya.util.error.SourcePos;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.util.LinkedHashSet;
 import java.util.function.Function;
 
 /**
@@ -118,6 +119,13 @@ public record CompiledAya(
     };
   }
 
+  /** @return the modules the definitions are deserialized into, including submodules */
+  public @NotNull ImmutableSeq<ImmutableSeq<String>> defModules() {
+    var modules = new LinkedHashSet<ImmutableSeq<String>>();
+    serDefs.forEach(def -> modules.add(def instanceof SerDef.Prim prim ? prim.module() : nameOf(def).mod()));
+    return ImmutableSeq.from(modules);
+  }
+
   public @NotNull ResolveInfo toResolveInfo(@NotNull ModuleLoader loader, @NotNull PhysicalModuleContext context, @NotNull SerTerm.DeState state) {
     var resolveInfo = new ResolveInfo(state.primFactory(), context, ImmutableSeq.empty(), new AyaBinOpSet(context.reporter()));
     shallowResolve(loader, resolveInfo);
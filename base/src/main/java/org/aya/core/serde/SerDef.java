@@ -6,7 +6,9 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.control.Either;
 import kala.control.Option;
 import org.aya.concrete.stmt.Decl;
+import org.aya.core.Matching;
 import org.aya.core.def.*;
+import org.aya.core.term.Term;
 import org.aya.generic.Constants;
 import org.aya.generic.Modifier;
 import org.aya.generic.util.InternalException;
@@ -38,10 +40,16 @@ public sealed interface SerDef extends Serializable {
     @NotNull SerTerm result
   ) implements SerDef {
     @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
-      return new FnDef(
-        state.newDef(name), telescope.map(tele -> tele.de(state)),
-        result.de(state), modifiers,
-        body.map(term -> term.de(state), mischa -> mischa.map(matchy -> matchy.de(state))));
+      var ref = state.<FnDef, Decl.FnDecl>newDef(name);
+      var tele = telescope.map(param -> param.de(state));
+      var resultTy = result.de(state);
+      // Bodies are only needed when unfolding, and can refer to definitions deserialized later
+      if (state.lazyBodies()) return new FnDef(ref, tele, resultTy, modifiers, () -> deBody(state));
+      return new FnDef(ref, tele, resultTy, modifiers, deBody(state));
+    }
+
+    private @NotNull Either<Term, ImmutableSeq<Matching>> deBody(SerTerm.@NotNull DeState state) {
+      return body.map(term -> term.de(state), mischa -> mischa.map(matchy -> matchy.de(state)));
     }
   }
 
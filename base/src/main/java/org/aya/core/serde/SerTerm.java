@@ -12,13 +12,18 @@ import org.aya.concrete.stmt.Signatured;
 import org.aya.core.def.Def;
 import org.aya.core.def.PrimDef;
 import org.aya.core.term.*;
+import org.aya.core.visitor.TermInterner;
 import org.aya.generic.Arg;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Predicate;
 
 /**
  * @author ice1000
@@ -27,18 +32,24 @@ public sealed interface SerTerm extends Serializable {
   record DeState(
     @NotNull MutableMap<Seq<String>, MutableMap<String, DefVar<?, ?>>> defCache,
     @NotNull MutableMap<Integer, LocalVar> localCache,
-    @NotNull PrimDef.Factory primFactory
+    @NotNull PrimDef.Factory primFactory,
+    boolean lazyBodies
   ) {
     public DeState(@NotNull PrimDef.Factory primFactory) {
-      this(MutableMap.create(), MutableMap.create(), primFactory);
+      this(primFactory, false);
     }
 
-    public @NotNull LocalVar var(@NotNull SimpVar var) {
+    /** @param lazyBodies whether function bodies are deserialized on first use */
+    public DeState(@NotNull PrimDef.Factory primFactory, boolean lazyBodies) {
+      this(MutableMap.create(), MutableMap.create(), primFactory, lazyBodies);
+    }
+
+    public synchronized @NotNull LocalVar var(@NotNull SimpVar var) {
       return localCache.getOrPut(var.var, () -> new LocalVar(var.name));
     }
 
     @SuppressWarnings("unchecked")
-    public <Core extends Def, Concrete extends Signatured>
+    public synchronized <Core extends Def, Concrete extends Signatured>
     @NotNull DefVar<Core, Concrete> resolve(@NotNull SerDef.QName name) {
       // We assume this cast to be safe
       var dv = (DefVar<Core, Concrete>) defCache
@@ -48,7 +59,7 @@ public sealed interface SerTerm extends Serializable {
       return dv;
     }
 
-    @SuppressWarnings("unchecked") <Core extends Def, Concrete extends Signatured>
+    @SuppressWarnings("unchecked") synchronized <Core extends Def, Concrete extends Signatured>
     @NotNull DefVar<Core, Concrete> newDef(@NotNull SerDef.QName name) {
       // We assume this cast to be safe
       var defVar = DefVar.empty(name.name());
@@ -60,7 +71,7 @@ public sealed interface SerTerm extends Serializable {
       return (DefVar<Core, Concrete>) defVar;
     }
 
-    public void putPrim(
+    public synchronized void putPrim(
       @NotNull ImmutableSeq<String> mod,
       @NotNull PrimDef.ID id,
       @NotNull DefVar<?, ?> defVar
@@ -69,6 +80,33 @@ public sealed interface SerTerm extends Serializable {
       if (old.isDefined()) throw new SerDef.DeserializeException("Same prim deserialized twice: " + id.id);
       defVar.module = mod;
     }
+
+    /** @return a snapshot of the definitions deserialized into the module */
+    public synchronized @NotNull Map<String, DefVar<?, ?>> module(@NotNull ImmutableSeq<String> mod) {
+      var defs = new HashMap<String, DefVar<?, ?>>();
+      var slice = defCache.getOrNull(mod);
+      if (slice != null) slice.forEach(defs::put);
+      return Collections.unmodifiableMap(defs);
+    }
+
+    /**
+     * @param visible the modules whose definitions are copied to the new state
+     * @return a state resolving the definitions of the visible modules deserialized so far,
+     * and deserializing into a cache of its own, so that lazy bodies do not depend on this state
+     */
+    public synchronized @NotNull DeState fork(@NotNull Predicate<Seq<String>> visible) {
+      var defs = MutableMap.<Seq<String>, MutableMap<String, DefVar<?, ?>>>create();
+      defCache.forEach((mod, slice) -> {
+        if (visible.test(mod)) defs.put(mod, MutableMap.from(slice));
+      });
+      return new DeState(defs, MutableMap.create(), primFactory, lazyBodies);
+    }
+
+    /** Bring back the definitions of a module deserialized by another state. */
+    public synchronized void putModule(@NotNull ImmutableSeq<String> mod, @NotNull Map<String, DefVar<?, ?>> defs) {
+      var slice = defCache.getOrPut(mod, MutableHashMap::new);
+      defs.forEach(slice::set);
+    }
   }
 
   record SimpVar(int var, @NotNull String name) implements Serializable {
@@ -97,7 +135,7 @@ public sealed interface SerTerm extends Serializable {
 
   record Univ(int ulift) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new FormTerm.Univ(ulift);
+      return TermInterner.tryIntern(new FormTerm.Univ(ulift));
     }
   }
 
@@ -122,7 +160,7 @@ public sealed interface SerTerm extends Serializable {
 
   record Proj(@NotNull SerTerm of, int ix) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new ElimTerm.Proj(of.de(state), ix);
+      return TermInterner.tryIntern(new ElimTerm.Proj(of.de(state), ix));
     }
   }
 
@@ -134,7 +172,7 @@ public sealed interface SerTerm extends Serializable {
 
   record App(@NotNull SerTerm of, @NotNull SerArg arg) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new ElimTerm.App(of.de(state), arg.de(state));
+      return TermInterner.tryIntern(new ElimTerm.App(of.de(state), arg.de(state)));
     }
   }
 
@@ -149,25 +187,25 @@ public sealed interface SerTerm extends Serializable {
 
   record StructCall(@NotNull SerDef.QName name, @NotNull CallData data) implements SerTerm {
     @Override public @NotNull CallTerm.Struct de(@NotNull DeState state) {
-      return new CallTerm.Struct(state.resolve(name), data.ulift, data.de(state));
+      return TermInterner.tryIntern(new CallTerm.Struct(state.resolve(name), data.ulift, data.de(state)));
     }
   }
 
   record FnCall(@NotNull SerDef.QName name, @NotNull CallData data) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new CallTerm.Fn(state.resolve(name), data.ulift, data.de(state));
+      return TermInterner.tryIntern(new CallTerm.Fn(state.resolve(name), data.ulift, data.de(state)));
     }
   }
 
   record DataCall(@NotNull SerDef.QName name, @NotNull CallData data) implements SerTerm {
     @Override public @NotNull CallTerm.Data de(@NotNull DeState state) {
-      return new CallTerm.Data(state.resolve(name), data.ulift, data.de(state));
+      return TermInterner.tryIntern(new CallTerm.Data(state.resolve(name), data.ulift, data.de(state)));
     }
   }
 
   record PrimCall(@NotNull SerDef.QName name, @NotNull PrimDef.ID id, @NotNull CallData data) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new CallTerm.Prim(state.resolve(name), id, data.ulift, data.de(state));
+      return TermInterner.tryIntern(new CallTerm.Prim(state.resolve(name), id, data.ulift, data.de(state)));
     }
   }
 
@@ -176,16 +214,16 @@ public sealed interface SerTerm extends Serializable {
     @NotNull CallData dataArgs, @NotNull ImmutableSeq<SerArg> args
   ) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new CallTerm.Con(
+      return TermInterner.tryIntern(new CallTerm.Con(
         state.resolve(dataRef), state.resolve(selfRef),
         dataArgs.de(state), dataArgs.ulift,
-        args.map(arg -> arg.de(state)));
+        args.map(arg -> arg.de(state))));
     }
   }
 
   record Tup(@NotNull ImmutableSeq<SerTerm> components) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new IntroTerm.Tuple(components.map(t -> t.de(state)));
+      return TermInterner.tryIntern(new IntroTerm.Tuple(components.map(t -> t.de(state))));
     }
   }
 
@@ -196,16 +234,16 @@ public sealed interface SerTerm extends Serializable {
     @NotNull ImmutableSeq<@NotNull SerArg> fieldArgs
   ) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new CallTerm.Access(
+      return TermInterner.tryIntern(new CallTerm.Access(
         of.de(state), state.resolve(ref),
         structArgs.map(arg -> arg.de(state)),
-        fieldArgs.map(arg -> arg.de(state)));
+        fieldArgs.map(arg -> arg.de(state))));
     }
   }
 
   record FieldRef(@NotNull SerDef.QName name, int ulift) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new RefTerm.Field(state.resolve(name), ulift);
+      return TermInterner.tryIntern(new RefTerm.Field(state.resolve(name), ulift));
     }
   }
 }
@@ -59,7 +59,7 @@ public record Serializer(@NotNull Serializer.State state) implements
       this(MutableMap.create(), MutableMap.create());
     }
 
-    public @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
+    public synchronized @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
       return new SerTerm.SimpVar(localCache.getOrPut(var, localCache::size), var.name());
     }
 
@@ -185,7 +185,7 @@ public record Serializer(@NotNull Serializer.State state) implements
 
   @Override public SerDef visitFn(@NotNull FnDef def, Unit unit) {
     return new SerDef.Fn(state.def(def.ref), serializeParams(def.telescope),
-      def.body.map(this::serialize, matchings -> matchings.map(this::serialize)),
+      def.body().map(this::serialize, matchings -> matchings.map(this::serialize)),
       def.modifiers, serialize(def.result));
   }
 
@@ -21,6 +21,7 @@ import org.aya.ref.Bind;
 import org.aya.ref.LocalVar;
 import org.aya.ref.Var;
 import org.aya.tyck.LittleTyper;
+import org.aya.tyck.NormalizeCache;
 import org.aya.tyck.TyckState;
 import org.aya.tyck.env.LocalCtx;
 import org.aya.util.distill.AyaDocile;
@@ -48,11 +49,11 @@ public sealed interface Term extends AyaDocile permits
   }
 
   default @NotNull Term subst(@NotNull Var var, @NotNull Term term) {
-    return view().subst(new Subst(var, term)).commit();
+    return subst(new Subst(var, term));
   }
 
   default @NotNull Term subst(@NotNull Subst subst) {
-    return view().subst(subst).commit();
+    return Instantiator.instantiate(this, false, subst, 0);
   }
 
   default @NotNull Term subst(@NotNull Map<Var, ? extends Term> subst) {
@@ -60,11 +61,11 @@ public sealed interface Term extends AyaDocile permits
   }
 
   default @NotNull Term subst(@NotNull Subst subst, int ulift) {
-    return view().subst(subst).lift(ulift).commit();
+    return Instantiator.instantiate(this, false, subst, ulift);
   }
 
   default @NotNull Term rename() {
-    return view().rename().commit();
+    return Instantiator.instantiate(this, true, Subst.EMPTY, 0);
   }
 
   default int findUsages(@NotNull Var var) {
@@ -86,9 +87,20 @@ public sealed interface Term extends AyaDocile permits
    *              like in the error messages.
    */
   default @NotNull Term normalize(@NotNull TyckState state, @NotNull NormalizeMode mode) {
-    if (mode == NormalizeMode.NULL) return this;
-    if (mode == NormalizeMode.NF) return this.view().normalize(state).commit();
-    return accept(new Normalizer(state), mode);
+    if (state != null) state.checkCanceled();
+    var cache = state != null && NormalizeCache.cacheable(this, mode) ? state.normalizeCache() : null;
+    if (cache != null) {
+      var cached = cache.get(this, mode);
+      if (cached != null) return cached;
+    }
+    var result = switch (mode) {
+      case NULL -> this;
+      case NF -> this.view().normalize(state).commit();
+      case NBE -> new Evaluator(state).normalize(this);
+      case WHNF -> accept(new Normalizer(state), mode);
+    };
+    if (cache != null) cache.put(this, mode, result);
+    return result;
   }
 
   default @NotNull Term freezeHoles(@Nullable TyckState state) {
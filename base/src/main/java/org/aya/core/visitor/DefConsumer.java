@@ -35,7 +35,7 @@ public interface DefConsumer<P> extends Def.Visitor<P, Unit>, TermConsumer<P> {
 
   @Override default Unit visitFn(@NotNull FnDef def, P p) {
     visitDef(def, p);
-    def.body.forEach(
+    def.body().forEach(
       body -> body.accept(this, p),
       matchings -> matchings.forEach(m -> visitMatching(m, p)));
     return Unit.unit();
@@ -0,0 +1,330 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Tuple;
+import org.aya.core.Matching;
+import org.aya.core.pat.Pat;
+import org.aya.core.term.*;
+import org.aya.generic.Arg;
+import org.aya.generic.Modifier;
+import org.aya.generic.util.InternalException;
+import org.aya.generic.util.NormalizeMode;
+import org.aya.ref.LocalVar;
+import org.aya.ref.Var;
+import org.aya.tyck.TyckState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Call-by-need normalization by evaluation.
+ * Instead of substituting arguments into function bodies like {@link Normalizer} does,
+ * terms are evaluated in an environment of memoized thunks, so every argument is
+ * reduced at most once no matter how many times it is used.
+ * The values are then read back into normal forms.
+ *
+ * @see NormalizeMode#NBE
+ */
+public record Evaluator(@Nullable TyckState state) {
+  /** Values in weak head normal form. */
+  private sealed interface Value {
+  }
+
+  /** A lambda closing over its environment. */
+  private record Lam(@NotNull Term.Param param, @NotNull Term body, @Nullable Env env) implements Value {
+  }
+
+  private record Tup(@NotNull ImmutableSeq<Thunk> items) implements Value {
+  }
+
+  /** @param args the evaluated {@link CallTerm.Con#conArgs()} */
+  private record Con(@NotNull CallTerm.Con call, @Nullable Env env, @NotNull ImmutableSeq<Thunk> args) implements Value {
+  }
+
+  private record New(@NotNull IntroTerm.New term, @Nullable Env env) implements Value {
+  }
+
+  /** A normal form that does not reduce any further, like neutrals and types. */
+  private record Rigid(@NotNull Term term) implements Value {
+  }
+
+  private static final class Thunk {
+    private @Nullable Term term;
+    private @Nullable Env env;
+    private @Nullable Value value;
+
+    private Thunk(@NotNull Term term, @Nullable Env env) {
+      this.term = term;
+      this.env = env;
+    }
+
+    private Thunk(@NotNull Value value) {
+      this.value = value;
+    }
+  }
+
+  /** A persistent environment, {@code null} is the empty one. */
+  private record Env(@NotNull Var var, @NotNull Thunk thunk, @Nullable Env next) {
+    private static @Nullable Thunk lookup(@Nullable Env env, @NotNull Var var) {
+      for (; env != null; env = env.next) if (env.var == var) return env.thunk;
+      return null;
+    }
+
+    private static @Nullable Env bind(
+      @Nullable Env env, @NotNull SeqLike<Term.@NotNull Param> params,
+      @NotNull SeqLike<@NotNull Thunk> thunks
+    ) {
+      for (var bind : params.view().zip(thunks)) env = new Env(bind._1.ref(), bind._2, env);
+      return env;
+    }
+
+    private static @NotNull Env fresh(@Nullable Env env, @NotNull Term.Param param, @NotNull LocalVar fresh) {
+      return new Env(param.ref(), new Thunk(new Rigid(new RefTerm(fresh, 0))), env);
+    }
+  }
+
+  private static final class Mismatch extends Exception {
+    public final boolean isBlocked;
+
+    private Mismatch(boolean isBlocked) {
+      super(null, null, false, false);
+      this.isBlocked = isBlocked;
+    }
+  }
+
+  public @NotNull Term normalize(@NotNull Term term) {
+    return nf(term, null);
+  }
+
+  private @NotNull Term nf(@NotNull Term term, @Nullable Env env) {
+    return quote(eval(term, env));
+  }
+
+  private @NotNull Arg<Term> nf(@NotNull Arg<Term> arg, @Nullable Env env) {
+    return new Arg<>(nf(arg.term(), env), arg.explicit());
+  }
+
+  private @NotNull Value force(@NotNull Thunk thunk) {
+    if (thunk.value == null) {
+      assert thunk.term != null;
+      thunk.value = eval(thunk.term, thunk.env);
+      thunk.term = null;
+      thunk.env = null;
+    }
+    return thunk.value;
+  }
+
+  private static @NotNull Thunk thunk(@NotNull Term term, @Nullable Env env) {
+    // Share the thunk instead of creating an indirection to it
+    if (term instanceof RefTerm ref) {
+      var bound = Env.lookup(env, ref.var());
+      if (bound != null) return bound;
+    }
+    return new Thunk(term, env);
+  }
+
+  private static @NotNull ImmutableSeq<Thunk> thunks(@NotNull ImmutableSeq<Arg<Term>> args, @Nullable Env env) {
+    return args.map(arg -> thunk(arg.term(), env));
+  }
+
+  private @NotNull ImmutableSeq<Arg<Term>>
+  quote(@NotNull ImmutableSeq<Arg<Term>> args, @NotNull ImmutableSeq<Thunk> thunks) {
+    return args.view().zip(thunks)
+      .map(t -> new Arg<>(quote(force(t._2)), t._1.explicit()))
+      .toImmutableSeq();
+  }
+
+  private @NotNull TyckState requireState(@NotNull String what) {
+    if (state == null) throw new InternalException("unfolding " + what + " without TyckState");
+    return state;
+  }
+
+  private static @NotNull Term lift(@NotNull Term term, int ulift) {
+    return ulift == 0 ? term : term.lift(ulift);
+  }
+
+  private @NotNull Value eval(@NotNull Term term, @Nullable Env env) {
+    return switch (term) {
+      case RefTerm ref -> {
+        var thunk = Env.lookup(env, ref.var());
+        yield thunk != null ? force(thunk) : new Rigid(ref);
+      }
+      case RefTerm.Field field -> {
+        var thunk = Env.lookup(env, field.ref());
+        yield thunk != null ? force(thunk) : new Rigid(field);
+      }
+      case RefTerm.MetaPat metaPat -> {
+        var inlined = metaPat.inline();
+        yield inlined == metaPat ? new Rigid(metaPat) : eval(inlined, env);
+      }
+      case IntroTerm.Lambda lambda -> new Lam(lambda.param(), lambda.body(), env);
+      case IntroTerm.Tuple tuple -> new Tup(tuple.items().map(item -> thunk(item, env)));
+      case IntroTerm.New neu -> new New(neu, env);
+      case ElimTerm.App app -> apply(eval(app.of(), env), thunk(app.arg().term(), env), app.arg().explicit());
+      case ElimTerm.Proj proj -> {
+        var of = eval(proj.of(), env);
+        var ix = proj.ix();
+        if (!(of instanceof Tup tup)) yield new Rigid(new ElimTerm.Proj(quote(of), ix));
+        // should not fail due to tycking
+        assert tup.items.sizeGreaterThanOrEquals(ix) && ix > 0;
+        yield force(tup.items.get(ix - 1));
+      }
+      case CallTerm.Con con -> {
+        var args = thunks(con.conArgs(), env);
+        var def = con.ref().core;
+        var unfolded = def == null ? null : tryUnfoldClauses(true, args, con.ulift(), def.clauses);
+        yield unfolded != null ? unfolded : new Con(con, env, args);
+      }
+      case CallTerm.Fn fn -> {
+        if (state != null) state.checkCanceled();
+        var def = fn.ref().core;
+        var args = thunks(fn.args(), env);
+        // Not yet type checked
+        if (def == null || def.modifiers.contains(Modifier.Opaque))
+          yield new Rigid(new CallTerm.Fn(fn.ref(), fn.ulift(), quote(fn.args(), args)));
+        var body = def.body();
+        if (body.isLeft()) yield eval(lift(body.getLeftValue(), fn.ulift()), Env.bind(null, def.telescope(), args));
+        var orderIndependent = def.modifiers.contains(Modifier.Overlap);
+        var unfolded = tryUnfoldClauses(orderIndependent, args, fn.ulift(), body.getRightValue());
+        yield unfolded != null ? unfolded : new Rigid(new CallTerm.Fn(fn.ref(), fn.ulift(), quote(fn.args(), args)));
+      }
+      case CallTerm.Prim prim -> {
+        var call = new CallTerm.Prim(prim.ref(), prim.id(), prim.ulift(), prim.args().map(arg -> nf(arg, env)));
+        // Prims unfold to normal forms when applied to normal forms
+        yield new Rigid(requireState("prims").primFactory().unfold(prim.id(), call, state));
+      }
+      case CallTerm.Hole hole -> {
+        var meta = hole.ref();
+        if (state != null && state.metas().containsKey(meta)) {
+          var args = hole.fullArgs().map(arg -> thunk(arg.term(), env)).toImmutableSeq();
+          yield eval(state.metas().get(meta), Env.bind(null, meta.fullTelescope(), args));
+        }
+        yield new Rigid(new CallTerm.Hole(meta, hole.ulift(),
+          hole.contextArgs().map(arg -> nf(arg, env)), hole.args().map(arg -> nf(arg, env))));
+      }
+      case CallTerm.Access access -> {
+        var of = eval(access.of(), env);
+        var fieldDef = access.ref().core;
+        if (of instanceof New n) {
+          var structArgs = thunks(access.structArgs(), env);
+          var field = eval(n.term.params().get(access.ref()), Env.bind(n.env, fieldDef.ownerTele, structArgs));
+          for (var arg : access.fieldArgs()) field = apply(field, thunk(arg.term(), env), arg.explicit());
+          yield field;
+        }
+        var call = new CallTerm.Access(quote(of), access.ref(),
+          access.structArgs().map(arg -> nf(arg, env)), access.fieldArgs().map(arg -> nf(arg, env)));
+        if (fieldDef.clauses.isEmpty()) yield new Rigid(call);
+        // This is rare, and we're gonna remove records w/ conditions anyway
+        yield new Rigid(call.normalize(requireState("fields"), NormalizeMode.NF));
+      }
+      case CallTerm.Data data -> new Rigid(new CallTerm.Data(data.ref(), data.ulift(),
+        data.args().map(arg -> nf(arg, env))));
+      case CallTerm.Struct struct -> new Rigid(new CallTerm.Struct(struct.ref(), struct.ulift(),
+        struct.args().map(arg -> nf(arg, env))));
+      case FormTerm.Pi pi -> {
+        var param = pi.param();
+        var fresh = param.renameVar();
+        yield new Rigid(new FormTerm.Pi(new Term.Param(fresh, nf(param.type(), env), param.pattern(), param.explicit()),
+          nf(pi.body(), Env.fresh(env, param, fresh))));
+      }
+      case FormTerm.Sigma sigma -> {
+        var params = MutableList.<Term.Param>create();
+        var scope = env;
+        for (var param : sigma.params()) {
+          var fresh = param.renameVar();
+          params.append(new Term.Param(fresh, nf(param.type(), scope), param.pattern(), param.explicit()));
+          scope = Env.fresh(scope, param, fresh);
+        }
+        yield new Rigid(new FormTerm.Sigma(params.toImmutableSeq()));
+      }
+      case FormTerm.Univ univ -> new Rigid(univ);
+      case ErrorTerm error -> new Rigid(error);
+    };
+  }
+
+  private @NotNull Value apply(@NotNull Value f, @NotNull Thunk arg, boolean explicit) {
+    if (f instanceof Lam lam) return eval(lam.body, new Env(lam.param.ref(), arg, lam.env));
+    return new Rigid(CallTerm.make(quote(f), new Arg<>(quote(force(arg)), explicit)));
+  }
+
+  private @NotNull Term quote(@NotNull Value value) {
+    return switch (value) {
+      case Rigid rigid -> rigid.term;
+      case Lam lam -> {
+        var param = lam.param;
+        var fresh = param.renameVar();
+        yield new IntroTerm.Lambda(new Term.Param(fresh, nf(param.type(), lam.env), param.pattern(), param.explicit()),
+          nf(lam.body, Env.fresh(lam.env, param, fresh)));
+      }
+      case Tup tup -> new IntroTerm.Tuple(tup.items.map(item -> quote(force(item))));
+      case Con con -> {
+        var head = con.call.head();
+        var dataArgs = head.dataArgs().map(arg -> nf(arg, con.env));
+        yield new CallTerm.Con(new CallTerm.ConHead(head.dataRef(), head.ref(), head.ulift(), dataArgs),
+          quote(con.call.conArgs(), con.args));
+      }
+      case New n -> {
+        var struct = n.term.struct();
+        yield new IntroTerm.New(
+          new CallTerm.Struct(struct.ref(), struct.ulift(), struct.args().map(arg -> nf(arg, n.env))),
+          ImmutableMap.from(n.term.params().view().map((k, v) -> Tuple.of(k, nf(v, n.env)))));
+      }
+    };
+  }
+
+  private @Nullable Value tryUnfoldClauses(
+    boolean orderIndependent, @NotNull ImmutableSeq<Thunk> args,
+    int ulift, @NotNull ImmutableSeq<Matching> clauses
+  ) {
+    for (var matchy : clauses) {
+      try {
+        var env = match(matchy.patterns(), args, null);
+        return eval(lift(matchy.body(), ulift), env);
+      } catch (Mismatch mismatch) {
+        // Blocked order-dependent clauses are not unfolded (first-match semantics)
+        if (!orderIndependent && mismatch.isBlocked) return null;
+      }
+    }
+    return null;
+  }
+
+  private @Nullable Env match(
+    @NotNull ImmutableSeq<Pat> pats, @NotNull SeqLike<Thunk> thunks,
+    @Nullable Env env
+  ) throws Mismatch {
+    assert pats.sizeEquals(thunks);
+    for (var pat : pats.view().zip(thunks)) env = match(pat._1, pat._2, env);
+    return env;
+  }
+
+  private @Nullable Env match(@NotNull Pat pat, @NotNull Thunk thunk, @Nullable Env env) throws Mismatch {
+    return switch (pat) {
+      case Pat.Bind bind -> new Env(bind.bind(), thunk, env);
+      case Pat.Absurd ignored -> throw new InternalException("unreachable");
+      case Pat.Meta meta -> {
+        var sol = meta.solution().value;
+        assert sol != null : "Unsolved pattern " + meta;
+        yield match(sol, thunk, env);
+      }
+      case Pat.Prim prim -> {
+        if (!(force(thunk) instanceof Rigid rigid && rigid.term instanceof CallTerm.Prim call))
+          throw new Mismatch(true);
+        if (call.ref() != prim.ref()) throw new Mismatch(false);
+        yield env;
+      }
+      case Pat.Ctor ctor -> {
+        if (!(force(thunk) instanceof Con con)) throw new Mismatch(true);
+        if (con.call.ref() != ctor.ref()) throw new Mismatch(false);
+        yield match(ctor.params(), con.args, env);
+      }
+      case Pat.Tuple tuple -> {
+        if (!(force(thunk) instanceof Tup tup)) throw new Mismatch(true);
+        yield match(tuple.pats(), tup.items, env);
+      }
+    };
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
+import kala.tuple.Tuple;
+import org.aya.core.term.*;
+import org.aya.generic.Arg;
+import org.aya.ref.Var;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Renaming of binders, a parallel substitution and a universe lift fused into one traversal,
+ * which behaves like {@code view().rename().subst(subst).lift(ulift).commit()}
+ * (or without {@code rename()} if {@link #rename} is false),
+ * except that references to the binders in the term are never lifted.
+ * Unchanged subterms are reused.
+ *
+ * @see TermOps.Renamer
+ * @see TermOps.Subster
+ * @see TermOps.Elevator
+ */
+public final class Instantiator {
+  private final boolean rename;
+  private final @NotNull Subst subst;
+  private final int ulift;
+  /** The renamed binders in the term */
+  private final @NotNull MutableMap<Var, RefTerm> renamed = MutableMap.create();
+  /** The binders in the term, if they are not renamed */
+  private final @NotNull MutableSet<Var> bound = MutableSet.create();
+
+  public Instantiator(boolean rename, @NotNull Subst subst, int ulift) {
+    this.rename = rename;
+    this.subst = subst;
+    this.ulift = ulift;
+  }
+
+  public static @NotNull Term instantiate(@NotNull Term term, boolean rename, @NotNull Subst subst, int ulift) {
+    if (!rename && subst.isEmpty() && ulift == 0) return term;
+    return new Instantiator(rename, subst, ulift).apply(term);
+  }
+
+  private @Nullable Term substituted(@NotNull Var var) {
+    // Subst.EMPTY does not support lookups
+    return subst.isEmpty() ? null : subst.map().getOrNull(var);
+  }
+
+  private @NotNull Term.Param bind(@NotNull Term.Param param) {
+    if (!rename) {
+      bound.add(param.ref());
+      return param;
+    }
+    var v = param.renameVar();
+    renamed.set(param.ref(), new RefTerm(v, 0));
+    return new Term.Param(v, param.type(), param.pattern(), param.explicit());
+  }
+
+  private @NotNull Term.Param apply(@NotNull Term.Param param) {
+    var type = apply(param.type());
+    if (type == param.type()) return param;
+    return new Term.Param(param, type);
+  }
+
+  private @NotNull Arg<Term> apply(@NotNull Arg<Term> arg) {
+    var term = apply(arg.term());
+    if (term == arg.term()) return arg;
+    return new Arg<>(term, arg.explicit());
+  }
+
+  private @NotNull ImmutableSeq<Arg<Term>> apply(@NotNull ImmutableSeq<Arg<Term>> args) {
+    var applied = args.map(this::apply);
+    return applied.sameElements(args, true) ? args : applied;
+  }
+
+  public @NotNull Term apply(@NotNull Term term) {
+    var applied = switch (term) {
+      case RefTerm ref -> {
+        var v = renamed.getOrNull(ref.var());
+        if (v != null) yield v;
+        var sol = substituted(ref.var());
+        if (sol != null) yield liftHead(sol.rename());
+        if (ulift == 0 || bound.contains(ref.var())) yield ref;
+        yield new RefTerm(ref.var(), ref.lift() + ulift);
+      }
+      case RefTerm.Field field -> {
+        var sol = substituted(field.ref());
+        if (sol != null) yield liftHead(sol.rename());
+        if (ulift == 0) yield field;
+        yield new RefTerm.Field(field.ref(), field.lift() + ulift);
+      }
+      case RefTerm.MetaPat metaPat -> metaPat;
+      case ErrorTerm error -> error;
+      case FormTerm.Univ univ -> ulift == 0 ? univ : new FormTerm.Univ(univ.lift() + ulift);
+      case FormTerm.Pi pi -> {
+        var param = apply(bind(pi.param()));
+        var body = apply(pi.body());
+        if (param == pi.param() && body == pi.body()) yield pi;
+        yield new FormTerm.Pi(param, body);
+      }
+      case FormTerm.Sigma sigma -> {
+        var params = sigma.params().map(this::bind).map(this::apply);
+        if (params.sameElements(sigma.params(), true)) yield sigma;
+        yield new FormTerm.Sigma(params);
+      }
+      case IntroTerm.Lambda lambda -> {
+        var param = apply(bind(lambda.param()));
+        var body = apply(lambda.body());
+        if (param == lambda.param() && body == lambda.body()) yield lambda;
+        yield new IntroTerm.Lambda(param, body);
+      }
+      case IntroTerm.Tuple tuple -> {
+        var items = tuple.items().map(this::apply);
+        if (items.sameElements(tuple.items(), true)) yield tuple;
+        yield new IntroTerm.Tuple(items);
+      }
+      case IntroTerm.New neu -> {
+        var struct = apply(neu.struct());
+        var fields = ImmutableMap.from(neu.params().view().map((k, v) -> Tuple.of(k, apply(v))));
+        if (struct == neu.struct() && fields.valuesView().sameElements(neu.params().valuesView())) yield neu;
+        yield new IntroTerm.New((CallTerm.Struct) struct, fields);
+      }
+      case ElimTerm.App app -> {
+        var function = apply(app.of());
+        var arg = apply(app.arg());
+        if (function == app.of() && arg == app.arg()) yield app;
+        yield CallTerm.make(function, arg);
+      }
+      case ElimTerm.Proj proj -> {
+        var tuple = apply(proj.of());
+        if (tuple == proj.of()) yield proj;
+        yield new ElimTerm.Proj(tuple, proj.ix());
+      }
+      case CallTerm.Struct struct -> {
+        var args = apply(struct.args());
+        if (args == struct.args() && ulift == 0) yield struct;
+        yield new CallTerm.Struct(struct.ref(), struct.ulift() + ulift, args);
+      }
+      case CallTerm.Data data -> {
+        var args = apply(data.args());
+        if (args == data.args() && ulift == 0) yield data;
+        yield new CallTerm.Data(data.ref(), data.ulift() + ulift, args);
+      }
+      case CallTerm.Con con -> {
+        var head = con.head();
+        var dataArgs = apply(head.dataArgs());
+        var conArgs = apply(con.conArgs());
+        if (dataArgs == head.dataArgs() && conArgs == con.conArgs() && ulift == 0) yield con;
+        yield new CallTerm.Con(new CallTerm.ConHead(head.dataRef(), head.ref(), head.ulift() + ulift, dataArgs), conArgs);
+      }
+      case CallTerm.Fn fn -> {
+        var args = apply(fn.args());
+        if (args == fn.args() && ulift == 0) yield fn;
+        yield new CallTerm.Fn(fn.ref(), fn.ulift() + ulift, args);
+      }
+      case CallTerm.Prim prim -> {
+        var args = apply(prim.args());
+        if (args == prim.args() && ulift == 0) yield prim;
+        yield new CallTerm.Prim(prim.ref(), prim.ulift() + ulift, args);
+      }
+      case CallTerm.Hole hole -> {
+        var contextArgs = apply(hole.contextArgs());
+        var args = apply(hole.args());
+        if (contextArgs == hole.contextArgs() && args == hole.args() && ulift == 0) yield hole;
+        yield new CallTerm.Hole(hole.ref(), hole.ulift() + ulift, contextArgs, args);
+      }
+      case CallTerm.Access access -> {
+        var struct = apply(access.of());
+        var structArgs = apply(access.structArgs());
+        var fieldArgs = apply(access.fieldArgs());
+        if (struct == access.of() && structArgs == access.structArgs() && fieldArgs == access.fieldArgs())
+          yield access;
+        yield new CallTerm.Access(struct, access.ref(), structArgs, fieldArgs);
+      }
+    };
+    return applied == term ? term : TermInterner.tryIntern(applied);
+  }
+
+  /** Like {@link TermOps.Elevator}, lifts only the head of substituted terms. */
+  private @NotNull Term liftHead(@NotNull Term term) {
+    if (ulift == 0) return term;
+    return switch (term) {
+      case FormTerm.Univ univ -> new FormTerm.Univ(univ.lift() + ulift);
+      case CallTerm.Struct struct -> new CallTerm.Struct(struct.ref(), struct.ulift() + ulift, struct.args());
+      case CallTerm.Data data -> new CallTerm.Data(data.ref(), data.ulift() + ulift, data.args());
+      case CallTerm.Con con -> {
+        var head = con.head();
+        yield new CallTerm.Con(new CallTerm.ConHead(head.dataRef(), head.ref(), head.ulift() + ulift, head.dataArgs()),
+          con.conArgs());
+      }
+      case CallTerm.Fn fn -> new CallTerm.Fn(fn.ref(), fn.ulift() + ulift, fn.args());
+      case CallTerm.Prim prim -> new CallTerm.Prim(prim.ref(), prim.ulift() + ulift, prim.args());
+      case CallTerm.Hole hole -> new CallTerm.Hole(hole.ref(), hole.ulift() + ulift, hole.contextArgs(), hole.args());
+      case RefTerm ref -> new RefTerm(ref.var(), ref.lift() + ulift);
+      case RefTerm.Field field -> new RefTerm.Field(field.ref(), field.lift() + ulift);
+      default -> term;
+    };
+  }
+}
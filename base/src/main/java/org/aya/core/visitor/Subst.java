@@ -47,6 +47,12 @@ public record Subst(@NotNull MutableMap<@NotNull Var, @NotNull Term> map) implem
     return this;
   }
 
+  /** Unlike {@link #add(Subst)}, the terms in this substitution are not substituted. */
+  public @NotNull Subst addDirectly(@NotNull Subst subst) {
+    map.putAll(subst.map);
+    return this;
+  }
+
   public @NotNull Subst add(@NotNull Var var, @NotNull Term term) {
     subst(new Subst(var, term));
     return addDirectly(var, term);
@@ -0,0 +1,197 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.term.*;
+import org.aya.generic.Arg;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing of closed terms, which are calls, tuples, projections and applications
+ * built from universes, field references and other closed terms.
+ * Terms with local variables, binders, holes or errors are never interned.
+ * <p>
+ * Terms are interned bottom-up, so the subterms of an interned term are interned, too.
+ * Equal closed terms are therefore identical, and the hash of a term is computed from the
+ * identities of its subterms instead of traversing them.
+ * Interned terms are weakly referenced, so unused ones are still garbage collected.
+ * <p>
+ * Disabled by default, enable it with {@code -Daya.intern=true} or {@link #use}.
+ *
+ * @see TermView#commit()
+ */
+public final class TermInterner {
+  private static volatile @Nullable TermInterner current = Boolean.getBoolean("aya.intern") ? new TermInterner() : null;
+
+  private static final class Key extends WeakReference<Term> {
+    private final int hash;
+
+    private Key(@NotNull Term term, int hash, @Nullable ReferenceQueue<Term> queue) {
+      super(term, queue);
+      this.hash = hash;
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key key) || hash != key.hash) return false;
+      var term = get();
+      // Subterms are interned, so the record equality returns early on them
+      return term != null && term.equals(key.get());
+    }
+  }
+
+  /**
+   * Looks up the table without allocating a {@link Key}.
+   * The table only calls the equality of the looked up object, so it need not be symmetric.
+   */
+  private static final class Probe {
+    private @Nullable Term term;
+    private int hash;
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj instanceof Key key && hash == key.hash && term != null && term.equals(key.get());
+    }
+  }
+
+  private final @NotNull ConcurrentHashMap<Key, Key> table = new ConcurrentHashMap<>();
+  private final @NotNull ReferenceQueue<Term> queue = new ReferenceQueue<>();
+  private final @NotNull ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+
+  /** @return the interner used by {@link #tryIntern}, null if interning is disabled */
+  public static @Nullable TermInterner current() {
+    return current;
+  }
+
+  /**
+   * @param interner used by {@link #tryIntern} from now on, null to disable interning
+   * @return the interner used before
+   */
+  public static @Nullable TermInterner use(@Nullable TermInterner interner) {
+    var old = current;
+    current = interner;
+    return old;
+  }
+
+  /** Interns the term using {@link #current()} if interning is enabled. */
+  @SuppressWarnings("unchecked")
+  public static <T extends Term> @NotNull T tryIntern(@NotNull T term) {
+    var interner = current;
+    return interner == null ? term : (T) interner.intern(term);
+  }
+
+  /**
+   * @return the interned term equal to the given one,
+   * or the term itself if it is not closed or has subterms which are not interned.
+   */
+  public @NotNull Term intern(@NotNull Term term) {
+    var subterms = subterms(term);
+    if (subterms == null || subterms.anyMatch(sub -> !interned(sub))) return term;
+    expunge();
+    var hash = hash(term);
+    var found = lookup(term, hash);
+    if (found != null) {
+      var interned = found.get();
+      if (interned != null) return interned;
+    }
+    var key = new Key(term, hash, queue);
+    while (true) {
+      var existing = table.putIfAbsent(key, key);
+      if (existing == null) return term;
+      var interned = existing.get();
+      if (interned != null) return interned;
+      // Collected after the lookup
+      table.remove(existing);
+    }
+  }
+
+  public boolean interned(@NotNull Term term) {
+    if (subterms(term) == null) return false;
+    var existing = lookup(term, hash(term));
+    return existing != null && existing.get() == term;
+  }
+
+  /** @return the number of interned terms which are not collected yet */
+  public int size() {
+    expunge();
+    return table.size();
+  }
+
+  private @Nullable Key lookup(@NotNull Term term, int hash) {
+    var probe = probes.get();
+    probe.term = term;
+    probe.hash = hash;
+    try {
+      return table.get(probe);
+    } finally {
+      probe.term = null;
+    }
+  }
+
+  /** Remove the keys whose terms are collected */
+  private void expunge() {
+    for (Object stale; (stale = queue.poll()) != null; ) table.remove(stale);
+  }
+
+  /** @return null if the term is not closed by itself */
+  private static @Nullable SeqView<Term> subterms(@NotNull Term term) {
+    return switch (term) {
+      case FormTerm.Univ ignored -> SeqView.empty();
+      case RefTerm.Field ignored -> SeqView.empty();
+      case CallTerm.Fn fn -> fn.args().view().map(Arg::term);
+      case CallTerm.Data data -> data.args().view().map(Arg::term);
+      case CallTerm.Struct struct -> struct.args().view().map(Arg::term);
+      case CallTerm.Prim prim -> prim.args().view().map(Arg::term);
+      case CallTerm.Con con -> con.head().dataArgs().view().concat(con.conArgs()).map(Arg::term);
+      case CallTerm.Access access -> access.structArgs().view().concat(access.fieldArgs())
+        .map(Arg::term).prepended(access.of());
+      case IntroTerm.Tuple tuple -> tuple.items().view();
+      case ElimTerm.Proj proj -> SeqView.of(proj.of());
+      case ElimTerm.App app -> SeqView.of(app.of(), app.arg().term());
+      default -> null;
+    };
+  }
+
+  private static int hash(@NotNull SeqLike<Arg<Term>> args) {
+    var hash = 1;
+    for (var arg : args) hash = 31 * hash + 2 * System.identityHashCode(arg.term()) + (arg.explicit() ? 1 : 0);
+    return hash;
+  }
+
+  private static int hash(@NotNull Object ref, int ulift, @NotNull ImmutableSeq<Arg<Term>> args) {
+    return (31 * System.identityHashCode(ref) + ulift) * 31 + hash(args);
+  }
+
+  private static int hash(@NotNull Term term) {
+    return switch (term) {
+      case FormTerm.Univ univ -> univ.lift();
+      case RefTerm.Field field -> 31 * System.identityHashCode(field.ref()) + field.lift();
+      case CallTerm.Fn fn -> hash(fn.ref(), fn.ulift(), fn.args());
+      case CallTerm.Data data -> hash(data.ref(), data.ulift(), data.args());
+      case CallTerm.Struct struct -> hash(struct.ref(), struct.ulift(), struct.args());
+      case CallTerm.Prim prim -> hash(prim.ref(), prim.ulift(), prim.args());
+      case CallTerm.Con con -> hash(con.ref(), con.ulift(), con.head().dataArgs()) * 31 + hash(con.conArgs());
+      case CallTerm.Access access -> (hash(access.ref(), System.identityHashCode(access.of()), access.structArgs())) * 31
+        + hash(access.fieldArgs());
+      case IntroTerm.Tuple tuple -> tuple.items().foldLeft(1, (hash, item) -> 31 * hash + System.identityHashCode(item));
+      case ElimTerm.Proj proj -> 31 * System.identityHashCode(proj.of()) + proj.ix();
+      case ElimTerm.App app -> 31 * System.identityHashCode(app.of()) + hash(ImmutableSeq.of(app.arg()));
+      default -> System.identityHashCode(term);
+    };
+  }
+}
@@ -175,7 +175,7 @@ public interface TermOps extends TermView {
       for (var match : clauses) {
         var result = PatMatcher.tryBuildSubstArgs(state.primFactory(), null, match.patterns(), args);
         if (result.isOk()) {
-          subst.add(result.get());
+          subst.addDirectly(result.get());
           var body = match.body().view().subst(subst).normalize(state).commit();
           return new WithPos<>(match.sourcePos(), body);
         } else if (!orderIndependent && result.getErr())
@@ -211,7 +211,7 @@ public interface TermOps extends TermView {
           var def = fn.ref().core;
           if (def == null) yield fn;
           if (def.modifiers.contains(Modifier.Opaque)) yield fn;
-          yield def.body.fold(
+          yield def.body().fold(
             lamBody -> lamBody.view().subst(buildSubst(def.telescope(), fn.args())).normalize(state).commit(),
             patBody -> {
               var orderIndependent = def.modifiers.contains(Modifier.Overlap);
@@ -28,7 +28,7 @@ public interface TermView {
   }
 
   private @NotNull Term commit(@NotNull Term term) {
-    return post(traverse(pre(term)));
+    return TermInterner.tryIntern(post(traverse(pre(term))));
   }
 
   private @NotNull Term.Param commit(@NotNull Term.Param param) {
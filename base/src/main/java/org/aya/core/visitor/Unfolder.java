@@ -53,10 +53,12 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     var def = fnCall.ref().core;
     // Not yet type checked
     if (def == null) return fnCall;
+    var state = state();
+    if (state != null) state.checkCanceled();
     var args = fnCall.args().map(arg -> visitArg(arg, p));
     var ulift = ulift() + fnCall.ulift();
     if (def.modifiers.contains(Modifier.Opaque)) return new CallTerm.Fn(fnCall.ref(), ulift, args);
-    var body = def.body;
+    var body = def.body();
     if (body.isLeft()) {
       var termSubst = checkAndBuildSubst(def.telescope(), args);
       return body.getLeftValue().subst(termSubst, ulift).accept(this, p).rename();
@@ -109,13 +111,9 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     for (var matchy : clauses) {
       var termSubst = PatMatcher.tryBuildSubstArgs(state.primFactory(), null, matchy.patterns(), args);
       if (termSubst.isOk()) {
-        subst.add(termSubst.get());
-        var newBody = matchy.body().view()
-          .rename()
-          .subst(subst)
-          .lift(ulift)
-          .commit()
-          .accept(this, p);
+        // Pattern variables are bound by the clause, so they cannot occur in the substitution
+        subst.addDirectly(termSubst.get());
+        var newBody = Instantiator.instantiate(matchy.body(), true, subst, ulift).accept(this, p);
         return new WithPos<>(matchy.sourcePos(), newBody);
       } else if (!orderIndependent && termSubst.getErr()) return null;
       // ^ if we have an order-dependent clause and the pattern matching is blocked,
@@ -204,7 +204,7 @@ public class CoreDistiller extends BaseDistiller<Term> {
           Doc.symbol(":"),
           term(Outer.Free, def.result())
         });
-        yield def.body.fold(
+        yield def.body().fold(
           term -> Doc.sep(Doc.sepNonEmpty(line1), Doc.symbol("=>"), term(Outer.Free, term)),
           clauses -> Doc.vcat(Doc.sepNonEmpty(line1), Doc.nest(2, visitClauses(clauses))));
       }
@@ -18,4 +18,10 @@ public enum NormalizeMode {
    * Normalize until the head is canonical.
    */
   WHNF,
+  /**
+   * Fully normalize, evaluating every argument at most once.
+   *
+   * @see org.aya.core.visitor.Evaluator
+   */
+  NBE,
 }
@@ -3,32 +3,66 @@
 package org.aya.resolve.module;
 
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.MutableMap;
-import kala.collection.mutable.MutableTreeMap;
 import org.aya.concrete.stmt.QualifiedID;
 import org.aya.resolve.ResolveInfo;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
+ * Safe for concurrent use: each module is loaded at most once,
+ * and loading different modules does not block each other.
+ *
  * @author re-xyr
  */
 public class CachedModuleLoader<ML extends ModuleLoader> implements ModuleLoader {
-  private final @NotNull MutableMap<@NotNull String, ResolveInfo> cache = MutableTreeMap.of();
+  private final @NotNull Map<@NotNull String, ResolveInfo> cache;
+  private final @NotNull Map<@NotNull String, Object> locks;
   public final @NotNull ML loader;
 
   @Override public @NotNull Reporter reporter() {
     return loader.reporter();
   }
 
+  @Override public @Nullable CancellationIndicator cancellation() {
+    return loader.cancellation();
+  }
+
   public CachedModuleLoader(@NotNull ML loader) {
+    this(loader, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+  }
+
+  private CachedModuleLoader(
+    @NotNull ML loader,
+    @NotNull Map<@NotNull String, ResolveInfo> cache,
+    @NotNull Map<@NotNull String, Object> locks
+  ) {
     this.loader = loader;
+    this.cache = cache;
+    this.locks = locks;
+  }
+
+  /** @return a loader that shares the cache with this one, but loads modules with another loader. */
+  public <T extends ModuleLoader> @NotNull CachedModuleLoader<T> derive(@NotNull T loader) {
+    return new CachedModuleLoader<>(loader, cache, locks);
   }
 
   @Override public @Nullable ResolveInfo
   load(@NotNull ImmutableSeq<String> path, @NotNull ModuleLoader recurseLoader) {
     var qualified = QualifiedID.join(path);
-    return cache.getOrPut(qualified, () -> loader.load(path, recurseLoader));
+    var cached = cache.get(qualified);
+    if (cached != null) return cached;
+    // Imports are acyclic, so nested loading never waits for a lock held by itself
+    synchronized (locks.computeIfAbsent(qualified, k -> new Object())) {
+      cached = cache.get(qualified);
+      if (cached != null) return cached;
+      var info = loader.load(path, recurseLoader);
+      if (info != null) cache.put(qualified, info);
+      return info;
+    }
   }
 }
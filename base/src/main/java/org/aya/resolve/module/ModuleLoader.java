@@ -12,6 +12,8 @@ import org.aya.resolve.context.ModuleContext;
 import org.aya.tyck.order.AyaOrgaTycker;
 import org.aya.tyck.order.AyaSccTycker;
 import org.aya.tyck.trace.Trace;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.reporter.DelayedReporter;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
@@ -34,13 +36,19 @@ public interface ModuleLoader {
   default <E extends Exception> @NotNull ResolveInfo
   tyckModule(Trace.Builder builder, ResolveInfo resolveInfo, ModuleCallback<E> onTycked) throws E {
     var SCCs = resolveInfo.depGraph().topologicalOrder();
+    var recursive = AyaSccTycker.recursive(resolveInfo.depGraph(), SCCs);
     var delayedReporter = new DelayedReporter(reporter());
-    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter), resolveInfo);
+    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter, cancellation(), recursive), resolveInfo);
+    var canceled = false;
     // in case we have un-messaged TyckException
     try (delayedReporter) {
       SCCs.forEach(sccTycker::tyckSCC);
+    } catch (CancellationException e) {
+      // the module is incomplete, so it is not reported as tycked
+      canceled = true;
+      throw e;
     } finally {
-      if (onTycked != null) onTycked.onModuleTycked(
+      if (onTycked != null && !canceled) onTycked.onModuleTycked(
         resolveInfo, sccTycker.sccTycker().wellTyped().toImmutableSeq());
     }
     return resolveInfo;
@@ -58,6 +66,10 @@ public interface ModuleLoader {
   }
 
   @NotNull Reporter reporter();
+  /** @return polled when tycking modules, null if the loading cannot be canceled */
+  default @Nullable CancellationIndicator cancellation() {
+    return null;
+  }
   @Nullable ResolveInfo load(@NotNull ImmutableSeq<@NotNull String> path, @NotNull ModuleLoader recurseLoader);
   default @Nullable ResolveInfo load(@NotNull ImmutableSeq<@NotNull String> path) {
     return load(path, this);
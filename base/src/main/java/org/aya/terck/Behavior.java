@@ -26,7 +26,7 @@ public record Behavior<T, P>(
     public static <T, P> @NotNull Diag<T, P> create(@NotNull CallMatrix<T, P> matrix) {
       assert matrix.rows() == matrix.cols();
       var diag = IntStream.range(0, matrix.rows())
-        .mapToObj(i -> matrix.matrix()[i][i])
+        .mapToObj(i -> matrix.get(i, i))
         .collect(ImmutableSeq.factory());
       return new Diag<>(matrix, diag);
     }
@@ -4,9 +4,9 @@ package org.aya.terck;
 
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
-import kala.value.Ref;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,29 +44,47 @@ public record CallGraph<T, P>(
     return true;
   }
 
-  /** the completion of a call graph is finding its transitive closure */
+  /**
+   * The completion of a call graph is finding its transitive closure.
+   * Semi-naive: each newly added matrix is only combined with the matrices before and after it,
+   * rather than combining all pairs again until nothing new appears.
+   */
   private static <T, P> @NotNull CallGraph<T, P> complete(@NotNull CallGraph<T, P> start) {
-    var oldGraph = new Ref<>(start);
-    var newEdge = new Ref<>(1);
-    // TODO: do we really need this fuel since we are just looking for a fixpoint?
-    var fuel = start.graph.size() + 1;
-    while (newEdge.value != 0 && fuel-- > 0) {
-      newEdge.value = 0;
-      var newGraph = new Ref<>(CallGraph.<T, P>create());
-      oldGraph.value.graph.forEach((domain, codomains) -> {
-        var out = codomains.getOrNull(domain);
-        if (out != null) out.forEach(matrix -> newGraph.value.put(matrix));
+    var graph = CallGraph.<T, P>create();
+    var worklist = MutableList.<CallMatrix<T, P>>create();
+    start.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(matrix -> {
+      if (graph.put(matrix)) worklist.append(matrix);
+    })));
+    for (int i = 0; i < worklist.size(); i++) {
+      var matrix = worklist.get(i);
+      // replaced by a smaller matrix, whose combinations are smaller as well
+      if (!graph.contains(matrix)) continue;
+      // copied, since the graph is changed during the combination
+      var next = MutableList.<CallMatrix<T, P>>create();
+      var after = graph.graph.getOrNull(matrix.codomain());
+      if (after != null) after.forEach((codomain, mats) -> next.appendAll(mats));
+      var before = MutableList.<CallMatrix<T, P>>create();
+      graph.graph.forEach((domain, codomains) -> {
+        var mats = codomains.getOrNull(matrix.domain());
+        if (mats != null) before.appendAll(mats);
       });
-      oldGraph.value.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(matrix -> {
-        var indirect = oldGraph.value.graph.getOrNull(matrix.codomain());
-        if (indirect != null) indirect.forEach((indCodomain, indMatrices) -> indMatrices.forEach(ind -> {
-          var combine = CallMatrix.combine(matrix, ind);
-          if (newGraph.value.put(combine)) newEdge.value++;
-        }));
-      })));
-      oldGraph.value = newGraph.value;
+      for (var ind : next) {
+        var combine = CallMatrix.combine(matrix, ind);
+        if (graph.put(combine)) worklist.append(combine);
+      }
+      for (var pre : before) {
+        var combine = CallMatrix.combine(pre, matrix);
+        if (graph.put(combine)) worklist.append(combine);
+      }
     }
-    return oldGraph.value;
+    return graph;
+  }
+
+  private boolean contains(@NotNull CallMatrix<T, P> matrix) {
+    var codomains = graph.getOrNull(matrix.domain());
+    if (codomains == null) return false;
+    var mats = codomains.getOrNull(matrix.codomain());
+    return mats != null && mats.contains(matrix);
   }
 
   public @Nullable ImmutableSeq<Behavior.Diag<T, P>> findNonTerminating() {
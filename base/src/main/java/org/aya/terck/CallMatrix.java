@@ -3,11 +3,11 @@
 package org.aya.terck;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
 import org.aya.core.term.CallTerm;
 import org.aya.generic.util.InternalException;
 import org.aya.pretty.doc.Doc;
 import org.aya.pretty.doc.Docile;
-import org.aya.util.ArrayUtil;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -15,6 +15,8 @@ import org.jetbrains.annotations.NotNull;
  * A call matrix for a call `f --> g` has dimensions `arity(g) * arity(f)`.
  * Each row corresponds to one argument in the call to `g` (the codomain).
  * Each column corresponds to one formal argument of caller `f` (the domain).
+ * Relations are packed into 2 bits each (see {@link Relation#bits}), and each row into {@link #words()} longs,
+ * so that comparing and combining matrices work on words.
  *
  * @author kiva
  * @see Relation
@@ -24,18 +26,25 @@ public record CallMatrix<Def, Param>(
   @NotNull Def domain, @NotNull Def codomain,
   @NotNull ImmutableSeq<Param> domainTele,
   @NotNull ImmutableSeq<Param> codomainTele,
-  @NotNull Relation[][] matrix
+  long @NotNull [] matrix
 ) implements Docile {
+  private static final int PER_WORD = Long.SIZE / 2;
+  /** The low bits of each relation in a word */
+  private static final long RELATED = 0x5555555555555555L;
+
   public CallMatrix(
     @NotNull CallTerm callTerm,
     @NotNull Def domain, @NotNull Def codomain,
     @NotNull ImmutableSeq<Param> domainTele,
     @NotNull ImmutableSeq<Param> codomainTele
   ) {
-    // TODO: sparse matrix?
+    // all Unknown
     this(callTerm, domain, codomain, domainTele, codomainTele,
-      new Relation[codomainTele.size()][domainTele.size()]);
-    ArrayUtil.fill(matrix, Relation.Unknown);
+      new long[codomainTele.size() * words(domainTele.size())]);
+  }
+
+  private static int words(int cols) {
+    return (cols + PER_WORD - 1) / PER_WORD;
   }
 
   public int rows() {
@@ -46,12 +55,23 @@ public record CallMatrix<Def, Param>(
     return domainTele.size();
   }
 
+  private int words() {
+    return words(cols());
+  }
+
+  public @NotNull Relation get(int row, int col) {
+    var word = matrix[row * words() + col / PER_WORD];
+    return Relation.fromBits((int) (word >>> (col % PER_WORD * 2)) & 0b11);
+  }
+
   public void set(@NotNull Param domain, @NotNull Param codomain, @NotNull Relation relation) {
     int row = codomainTele.indexOf(codomain);
     int col = domainTele.indexOf(domain);
     assert row != -1;
     assert col != -1;
-    matrix[row][col] = relation;
+    var index = row * words() + col / PER_WORD;
+    var shift = col % PER_WORD * 2;
+    matrix[index] = matrix[index] & ~(0b11L << shift) | (long) relation.bits << shift;
   }
 
   /**
@@ -62,11 +82,8 @@ public record CallMatrix<Def, Param>(
     if (this.domain != other.domain || this.codomain != other.codomain)
       throw new IllegalArgumentException("Cannot compare unrelated call matrices");
     if (this == other) return Relation.Equal;
-    for (int i = 0; i < rows(); i++)
-      for (int j = 0; j < cols(); j++) {
-        if (!this.matrix[i][j].lessThanOrEqual(other.matrix[i][j]))
-          return Relation.Unknown;
-      }
+    for (int i = 0; i < matrix.length; i++)
+      if ((this.matrix[i] & ~other.matrix[i]) != 0) return Relation.Unknown;
     return Relation.LessThan;
   }
 
@@ -85,16 +102,29 @@ public record CallMatrix<Def, Param>(
     var BA = new CallMatrix<>(B.callTerm, A.domain, B.codomain,
       A.domainTele, B.codomainTele);
 
+    // BA[i] = sum of B[i][k] * A[k], where multiplying a row by Equal keeps it,
+    // and multiplying by LessThan makes each related relation strict
+    var words = BA.words();
     for (int i = 0; i < BA.rows(); i++)
-      for (int j = 0; j < BA.cols(); j++)
-        for (int k = 0; k < B.cols(); k++)
-          BA.matrix[i][j] = BA.matrix[i][j].add(B.matrix[i][k].mul(A.matrix[k][j]));
+      for (int k = 0; k < B.cols(); k++) {
+        var relation = B.get(i, k);
+        if (relation == Relation.Unknown) continue;
+        for (int w = 0; w < words; w++) {
+          var word = A.matrix[k * words + w];
+          if (relation == Relation.LessThan) word |= (word & RELATED) << 1;
+          BA.matrix[i * words + w] |= word;
+        }
+      }
     return BA;
   }
 
   public @NotNull Doc toDoc() {
-    return Doc.vcat(ImmutableSeq.from(matrix).map(
-      row -> Doc.stickySep(ImmutableSeq.from(row)
-        .map(col -> Doc.plain(col.text)))));
+    var rows = MutableList.<Doc>create();
+    for (int i = 0; i < rows(); i++) {
+      var row = MutableList.<Doc>create();
+      for (int j = 0; j < cols(); j++) row.append(Doc.plain(get(i, j).text));
+      rows.append(Doc.stickySep(row));
+    }
+    return Doc.vcat(rows);
   }
 }
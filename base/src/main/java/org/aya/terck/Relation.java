@@ -15,16 +15,31 @@ import org.jetbrains.annotations.NotNull;
  */
 public enum Relation implements Comparable<Relation>{
   /** increase or unrelated of callee argument wrt. caller parameter. */
-  Unknown("?"),
+  Unknown("?", 0b00),
   /** structurally (maybe strictly) smaller than */
-  Equal("="),
+  Equal("=", 0b01),
   /** structurally strictly smaller than */
-  LessThan("<");
+  LessThan("<", 0b11);
 
   public final @NotNull String text;
+  /**
+   * Encoding in {@link CallMatrix}, where the low bit means related and the high bit means strictly smaller,
+   * so that {@link #lessThanOrEqual(Relation)} is bit inclusion and {@link #add(Relation)} is bitwise or.
+   */
+  final int bits;
 
-  @Contract(pure = true) Relation(@NotNull String text) {
+  @Contract(pure = true) Relation(@NotNull String text, int bits) {
     this.text = text;
+    this.bits = bits;
+  }
+
+  @Contract(pure = true) static @NotNull Relation fromBits(int bits) {
+    return switch (bits) {
+      case 0b00 -> Unknown;
+      case 0b01 -> Equal;
+      case 0b11 -> LessThan;
+      default -> throw new IllegalArgumentException("Not a relation: " + bits);
+    };
   }
 
   @Override public String toString() {
@@ -54,6 +69,4 @@ public enum Relation implements Comparable<Relation>{
   public boolean lessThanOrEqual(@NotNull Relation rhs) {
     return this.ordinal() <= rhs.ordinal();
   }
-
-
 }
@@ -371,7 +371,11 @@ public final class ExprTycker extends Tycker {
   */
 
   public ExprTycker(@NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder) {
-    super(reporter, new TyckState(primFactory));
+    this(new TyckState(primFactory), reporter, traceBuilder);
+  }
+
+  public ExprTycker(@NotNull TyckState state, @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder) {
+    super(reporter, state);
     this.traceBuilder = traceBuilder;
   }
 
@@ -380,6 +384,7 @@ public final class ExprTycker extends Tycker {
   }
 
   public @NotNull Result inherit(@NotNull Expr expr, @NotNull Term type) {
+    state.checkCanceled();
     tracing(builder -> builder.shift(new Trace.ExprT(expr, type.freezeHoles(state))));
     Result result;
     if (type instanceof FormTerm.Pi pi && !pi.param().explicit() && needImplicitParamIns(expr)) {
@@ -393,6 +398,7 @@ public final class ExprTycker extends Tycker {
   }
 
   public @NotNull Result synthesize(@NotNull Expr expr) {
+    state.checkCanceled();
     tracing(builder -> builder.shift(new Trace.ExprT(expr, null)));
     var res = doSynthesize(expr);
     traceExit(res, expr);
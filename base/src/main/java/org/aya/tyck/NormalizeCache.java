@@ -0,0 +1,87 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import org.aya.core.term.CallTerm;
+import org.aya.core.term.Term;
+import org.aya.generic.util.NormalizeMode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, direct-mapped cache of the normal forms of call terms, keyed by identity.
+ * Normal forms only change when metas are solved, which invalidates the whole cache.
+ *
+ * @see TyckState#solve(org.aya.core.Meta, Term)
+ */
+public final class NormalizeCache {
+  public static final int SIZE = 1 << 10;
+  private static final @NotNull LongAdder TOTAL_HITS = new LongAdder();
+  private static final @NotNull LongAdder TOTAL_MISSES = new LongAdder();
+
+  /** Indexed by {@link #slot(Term, NormalizeMode)}, WHNF entries first, then NF and NBE ones. */
+  private final @Nullable Term @NotNull [] keys = new Term[SIZE * 3];
+  private final @Nullable Term @NotNull [] values = new Term[SIZE * 3];
+  private final int @NotNull [] generations = new int[SIZE * 3];
+  /** Entries of older generations are invalid, starts from 1 so that empty entries are, too. */
+  private int generation = 1;
+  private long hits = 0;
+  private long misses = 0;
+
+  public static boolean cacheable(@NotNull Term term, @NotNull NormalizeMode mode) {
+    return mode != NormalizeMode.NULL && term instanceof CallTerm && !(term instanceof CallTerm.Hole);
+  }
+
+  private static int slot(@NotNull Term term, @NotNull NormalizeMode mode) {
+    var index = System.identityHashCode(term) & (SIZE - 1);
+    // NF and NBE agree on the results, but they are kept apart so that each mode is observed on its own
+    return switch (mode) {
+      case WHNF -> index;
+      case NF -> SIZE + index;
+      default -> SIZE * 2 + index;
+    };
+  }
+
+  public @Nullable Term get(@NotNull Term term, @NotNull NormalizeMode mode) {
+    var slot = slot(term, mode);
+    if (keys[slot] == term && generations[slot] == generation) {
+      hits++;
+      TOTAL_HITS.increment();
+      return values[slot];
+    }
+    misses++;
+    TOTAL_MISSES.increment();
+    return null;
+  }
+
+  public void put(@NotNull Term term, @NotNull NormalizeMode mode, @NotNull Term result) {
+    var slot = slot(term, mode);
+    keys[slot] = term;
+    values[slot] = result;
+    generations[slot] = generation;
+  }
+
+  public void invalidate() {
+    generation++;
+  }
+
+  public long hits() {
+    return hits;
+  }
+
+  public long misses() {
+    return misses;
+  }
+
+  /** @return hits of all caches in this process */
+  public static long totalHits() {
+    return TOTAL_HITS.sum();
+  }
+
+  /** @return misses of all caches in this process */
+  public static long totalMisses() {
+    return TOTAL_MISSES.sum();
+  }
+}
@@ -21,6 +21,7 @@ import org.aya.tyck.pat.PatClassifier;
 import org.aya.tyck.pat.PatTycker;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.TreeBuilder;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.error.SourcePos;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
@@ -37,10 +38,19 @@ import java.util.function.Consumer;
  */
 public record StmtTycker(
   @NotNull Reporter reporter,
-  Trace.@Nullable Builder traceBuilder
+  Trace.@Nullable Builder traceBuilder,
+  @Nullable CancellationIndicator cancellation
 ) {
+  public StmtTycker(@NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder) {
+    this(reporter, traceBuilder, null);
+  }
+
   public @NotNull ExprTycker newTycker(@NotNull PrimDef.Factory primFactory) {
-    return new ExprTycker(primFactory, reporter, traceBuilder);
+    return newTycker(primFactory, reporter);
+  }
+
+  public @NotNull ExprTycker newTycker(@NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter) {
+    return new ExprTycker(new TyckState(primFactory, cancellation), reporter, traceBuilder);
   }
 
   private void tracing(@NotNull Consumer<Trace.@NotNull Builder> consumer) {
@@ -12,32 +12,64 @@ import org.aya.core.def.PrimDef;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.TermConsumer;
-import org.aya.core.visitor.VarConsumer;
 import org.aya.pretty.doc.Doc;
 import org.aya.tyck.env.LocalCtx;
 import org.aya.tyck.error.HoleProblem;
 import org.aya.tyck.trace.Trace;
 import org.aya.tyck.unify.DefEq;
 import org.aya.util.Ordering;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.AyaDocile;
 import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
-import org.aya.util.error.WithPos;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
 /**
  * Currently we only deal with ambiguous equations (so no 'stuck' equations).
+ * Equations are indexed by the metas they are blocked on, so that solving a meta
+ * only wakes up the equations mentioning it.
+ *
+ * @param eqns    pending equations in the order they are added, which may contain woken ones until simplified
+ * @param pending pending equations, compared by identity
+ * @param blocked pending equations blocked on each unsolved meta
+ * @param woken   metas solved since last simplification, which block some equations
  */
 public record TyckState(
   @NotNull MutableList<Eqn> eqns,
-  @NotNull MutableList<WithPos<Meta>> activeMetas,
+  @NotNull Set<Eqn> pending,
+  @NotNull MutableMap<@NotNull Meta, @NotNull MutableList<Eqn>> blocked,
+  @NotNull MutableList<Meta> woken,
   @NotNull MutableMap<@NotNull Meta, @NotNull Term> metas,
-  @NotNull PrimDef.Factory primFactory
+  @NotNull PrimDef.Factory primFactory,
+  @NotNull NormalizeCache normalizeCache,
+  @Nullable CancellationIndicator cancellation
 ) {
   public TyckState(@NotNull PrimDef.Factory primFactory) {
-    this(MutableList.create(), MutableList.create(), MutableMap.create(), primFactory);
+    this(primFactory, null);
+  }
+
+  public TyckState(@NotNull PrimDef.Factory primFactory, @Nullable CancellationIndicator cancellation) {
+    this(MutableList.create(), Collections.newSetFromMap(new IdentityHashMap<>()), MutableMap.create(),
+      MutableList.create(), MutableMap.create(), primFactory, new NormalizeCache(), cancellation);
+  }
+
+  /** Polled by the tycker, the unifier and the normalizer. */
+  public void checkCanceled() throws CancellationException {
+    if (cancellation != null) cancellation.checkCanceled();
+  }
+
+  /** Solutions to metas may unblock normalization, so use this instead of {@link #metas()}. */
+  public void solve(@NotNull Meta meta, @NotNull Term solution) {
+    metas.put(meta, solution);
+    normalizeCache.invalidate();
+    if (blocked.containsKey(meta)) woken.append(meta);
   }
 
   /**
@@ -50,26 +82,25 @@ public record TyckState(
     new DefEq(eqn.cmp, reporter, !trying, trying, tracer, this, eqn.pos, eqn.localCtx).checkEqn(eqn);
   }
 
-  /** @return true if <code>this.eqns</code> and <code>this.activeMetas</code> are mutated. */
+  /** @return true if <code>this.eqns</code> are mutated, i.e. some equations are woken up. */
   public boolean simplify(
     @NotNull Reporter reporter, @Nullable Trace.Builder tracer
   ) {
-    var removingMetas = MutableList.<WithPos<Meta>>create();
-    for (var activeMeta : activeMetas) {
-      if (metas.containsKey(activeMeta.data())) {
-        eqns.filterInPlace(eqn -> {
-          var usageCounter = new VarConsumer.UsageCounter(activeMeta.data());
-          eqn.accept(usageCounter, Unit.unit());
-          if (usageCounter.usageCount() > 0) {
-            solveEqn(reporter, tracer, eqn, true);
-            return false;
-          } else return true;
-        });
-        removingMetas.append(activeMeta);
-      }
+    if (woken.isEmpty()) return false;
+    var solved = woken.toImmutableSeq();
+    woken.clear();
+    var waking = MutableList.<Eqn>create();
+    for (var meta : solved) {
+      var eqns = blocked.remove(meta);
+      // an equation blocked on several metas is woken by the first solved one
+      if (eqns.isDefined()) eqns.get().forEach(eqn -> {
+        if (pending.remove(eqn)) waking.append(eqn);
+      });
     }
-    activeMetas.filterNotInPlace(removingMetas::contains);
-    return removingMetas.isNotEmpty();
+    if (waking.isEmpty()) return false;
+    eqns.filterInPlace(pending::contains);
+    for (var eqn : waking) solveEqn(reporter, tracer, eqn, true);
+    return true;
   }
 
   public void solveMetas(@NotNull Reporter reporter, @Nullable Trace.Builder traceBuilder) {
@@ -87,16 +118,17 @@ public record TyckState(
 
   public void addEqn(@NotNull Eqn eqn) {
     eqns.append(eqn);
-    var currentActiveMetas = activeMetas.size();
+    pending.add(eqn);
+    var blockers = MutableList.<Meta>create();
     eqn.accept(new TermConsumer<>() {
       @Override public Unit visitHole(CallTerm.@NotNull Hole term, Unit unit) {
         var ref = term.ref();
-        if (!metas.containsKey(ref))
-          activeMetas.append(new WithPos<>(eqn.pos, ref));
+        if (!metas.containsKey(ref) && !blockers.contains(ref)) blockers.append(ref);
         return unit;
       }
     }, Unit.unit());
-    assert activeMetas.sizeGreaterThan(currentActiveMetas) : "Adding a bad equation";
+    assert blockers.isNotEmpty() : "Adding a bad equation";
+    blockers.forEach(meta -> blocked.getOrPut(meta, MutableList::create).append(eqn));
   }
 
   public record Eqn(
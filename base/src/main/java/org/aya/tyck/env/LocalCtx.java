@@ -32,9 +32,9 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
   }
   default @NotNull Tuple2<CallTerm.Hole, Term>
   freshHole(@Nullable Term type, @NotNull String name, @NotNull SourcePos sourcePos) {
-    var ctxTele = extract();
-    var meta = Meta.from(ctxTele, name, type, sourcePos);
-    var hole = new CallTerm.Hole(meta, 0, ctxTele.map(Term.Param::toArg), meta.telescope.map(Term.Param::toArg));
+    var snapshot = snapshot();
+    var meta = Meta.from(snapshot, name, type, sourcePos);
+    var hole = new CallTerm.Hole(meta, 0, snapshot.args(), meta.telescope.map(Term.Param::toArg));
     return Tuple2.of(hole, IntroTerm.Lambda.make(meta.telescope, hole));
   }
   default <T> T with(@NotNull Term.Param param, @NotNull Supplier<T> action) {
@@ -70,6 +70,15 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
     }
     return ctx.toImmutableSeq();
   }
+  /** @return the variables in scope, taken in constant time if the context is not changed since last time */
+  default @NotNull LocalSnapshot snapshot() {
+    var parent = parent();
+    return layer().get(parent == null ? LocalSnapshot.EMPTY : parent.snapshot(), depth(), this);
+  }
+  private int depth() {
+    var parent = parent();
+    return parent == null ? 0 : parent.depth() + 1;
+  }
   @Contract(mutates = "param1") void extractToLocal(@NotNull MutableList<Term.Param> dest);
   @Contract(pure = true) default @NotNull Term get(@NotNull LocalVar var) {
     var ctx = this;
@@ -94,4 +103,5 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
     return new SeqLocalCtx(MutableList.create(), this);
   }
   @Nullable LocalCtx parent();
+  @NotNull LocalSnapshot.Layer layer();
 }
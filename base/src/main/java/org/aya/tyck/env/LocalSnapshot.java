@@ -0,0 +1,99 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.env;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.core.term.Term;
+import org.aya.generic.Arg;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * A persistent snapshot of a {@link LocalCtx}, which is a list of the variables in scope
+ * sharing its prefix with the snapshots it is extended from, so that metas capture it in constant time.
+ * The telescope and the arguments of a snapshot are built on first use,
+ * and are shared by all the holes capturing the snapshot.
+ */
+public final class LocalSnapshot {
+  public static final @NotNull LocalSnapshot EMPTY = new LocalSnapshot(null, null, 0);
+
+  private final @Nullable LocalSnapshot parent;
+  private final @Nullable Term.Param param;
+  /** Depth of the layer of the variable, as variables of inner layers come first in the telescope */
+  private final int depth;
+  private @Nullable ImmutableSeq<Term.Param> telescope;
+  private @Nullable ImmutableSeq<Arg<Term>> args;
+
+  private LocalSnapshot(@Nullable LocalSnapshot parent, @Nullable Term.Param param, int depth) {
+    this.parent = parent;
+    this.param = param;
+    this.depth = depth;
+  }
+
+  private @NotNull LocalSnapshot extend(@NotNull Term.Param param, int depth) {
+    return new LocalSnapshot(this, param, depth);
+  }
+
+  /** Same as {@link LocalCtx#extract()} at the time of the snapshot. */
+  public @NotNull ImmutableSeq<Term.Param> telescope() {
+    if (telescope == null) {
+      var nodes = new ArrayList<LocalSnapshot>();
+      for (var node = this; node.param != null; node = node.parent) nodes.add(node);
+      // innermost layer first, and the insertion order in each layer
+      var sorted = new ArrayList<LocalSnapshot>(nodes.size());
+      for (var i = nodes.size() - 1; i >= 0; i--) sorted.add(nodes.get(i));
+      sorted.sort(Comparator.comparingInt(node -> -node.depth));
+      telescope = ImmutableSeq.from(sorted).map(node -> node.param);
+    }
+    return telescope;
+  }
+
+  public @NotNull ImmutableSeq<Arg<Term>> args() {
+    if (args == null) args = telescope().map(Term.Param::toArg);
+    return args;
+  }
+
+  /** The snapshots of a layer of {@link LocalCtx}, extended when variables are put to the layer. */
+  public static final class Layer {
+    /** The snapshot of the parent layers the current one is extended from */
+    private @Nullable LocalSnapshot base = null;
+    /** Null if outdated */
+    private @Nullable LocalSnapshot current = null;
+    private int depth;
+
+    @NotNull LocalSnapshot get(@NotNull LocalSnapshot base, int depth, @NotNull LocalCtx ctx) {
+      if (current == null || this.base != base || this.depth != depth) {
+        var params = MutableList.<Term.Param>create();
+        ctx.extractToLocal(params);
+        var snapshot = base;
+        for (var param : params) snapshot = snapshot.extend(param, depth);
+        this.base = base;
+        this.depth = depth;
+        current = snapshot;
+      }
+      return current;
+    }
+
+    /** @param appended false if the variable replaces another one in the layer */
+    void put(@NotNull LocalVar var, @NotNull Term type, boolean appended) {
+      if (current == null) return;
+      current = appended ? current.extend(new Term.Param(var, type, false), depth) : null;
+    }
+
+    void invalidate() {
+      current = null;
+    }
+
+    void remove(@NotNull LocalVar var) {
+      // undo the last put, which is the common case of LocalCtx#with
+      if (current != null && current != base && current.param != null && current.param.ref() == var)
+        current = current.parent;
+      else current = null;
+    }
+  }
+}
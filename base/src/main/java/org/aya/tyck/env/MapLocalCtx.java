@@ -16,14 +16,21 @@ import org.jetbrains.annotations.Nullable;
  */
 public record MapLocalCtx(
   @NotNull MutableMap<LocalVar, Term> localMap,
-  @Override @Nullable LocalCtx parent
+  @Override @Nullable LocalCtx parent,
+  @Override @NotNull LocalSnapshot.Layer layer
 ) implements LocalCtx {
   public MapLocalCtx() {
     this(MutableLinkedHashMap.of(), null);
   }
 
+  public MapLocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable LocalCtx parent) {
+    this(localMap, parent, new LocalSnapshot.Layer());
+  }
+
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
-    vars.forEach(localMap::remove);
+    vars.forEach(var -> {
+      if (localMap.remove(var).isDefined()) layer.remove(var);
+    });
   }
 
   @Override public @Nullable Term getLocal(@NotNull LocalVar var) {
@@ -31,7 +38,7 @@ public record MapLocalCtx(
   }
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
-    localMap.put(var, term);
+    layer.put(var, term, localMap.put(var, term).isEmpty());
   }
 
   @Override public boolean isEmpty() {
@@ -11,17 +11,24 @@ import org.jetbrains.annotations.Nullable;
 
 public record SeqLocalCtx(
   @NotNull MutableList<P> localSeq,
-  @Override @Nullable LocalCtx parent
+  @Override @Nullable LocalCtx parent,
+  @Override @NotNull LocalSnapshot.Layer layer
 ) implements LocalCtx {
   public SeqLocalCtx() {
     this(MutableList.create(), null);
   }
 
+  public SeqLocalCtx(@NotNull MutableList<P> localSeq, @Nullable LocalCtx parent) {
+    this(localSeq, parent, new LocalSnapshot.Layer());
+  }
+
   public record P(@NotNull LocalVar var, @NotNull Term type) {
   }
 
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
+    // a variable may be put several times
     localSeq.removeAll(p -> vars.contains(p.var));
+    layer.invalidate();
   }
 
   @Override public void extractToLocal(@NotNull MutableList<Term.Param> dest) {
@@ -34,6 +41,7 @@ public record SeqLocalCtx(
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
     localSeq.append(new P(var, term));
+    layer.put(var, term, true);
   }
 
   @Override public boolean isEmpty() {
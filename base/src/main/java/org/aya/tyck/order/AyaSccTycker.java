@@ -25,6 +25,7 @@ import org.aya.tyck.error.CounterexampleError;
 import org.aya.tyck.error.TyckOrderProblem;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.MutableGraph;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.CollectingReporter;
 import org.aya.util.reporter.CountingReporter;
@@ -39,6 +40,7 @@ import java.util.function.Function;
  * Tyck statements in SCC.
  *
  * @param tyckerReuse headers and bodies should be checked using the same tycker.
+ * @param recursive   the units referencing themselves in {@link ResolveInfo#depGraph()}, see {@link #recursive}.
  * @author kiva
  * @see ExprTycker
  */
@@ -48,11 +50,46 @@ public record AyaSccTycker(
   @NotNull ResolveInfo resolveInfo,
   @NotNull MutableList<@NotNull Def> wellTyped,
   @NotNull MutableMap<Decl, ExprTycker> tyckerReuse,
-  @NotNull MutableMap<Decl, CollectingReporter> sampleReporters
+  @NotNull MutableMap<Decl, CollectingReporter> sampleReporters,
+  @NotNull MutableSet<TyckOrder> recursive
 ) implements SCCTycker<TyckOrder, AyaSccTycker.SCCTyckingFailed> {
   public static @NotNull AyaSccTycker create(ResolveInfo resolveInfo, @Nullable Trace.Builder builder, @NotNull Reporter outReporter) {
+    return create(resolveInfo, builder, outReporter, null);
+  }
+
+  public static @NotNull AyaSccTycker create(
+    ResolveInfo resolveInfo, @Nullable Trace.Builder builder,
+    @NotNull Reporter outReporter, @Nullable CancellationIndicator cancellation
+  ) {
+    var graph = resolveInfo.depGraph();
+    return create(resolveInfo, builder, outReporter, cancellation, recursive(graph, graph.topologicalOrder()));
+  }
+
+  /** @param recursive see {@link #recursive(MutableGraph, ImmutableSeq)} */
+  public static @NotNull AyaSccTycker create(
+    ResolveInfo resolveInfo, @Nullable Trace.Builder builder,
+    @NotNull Reporter outReporter, @Nullable CancellationIndicator cancellation,
+    @NotNull MutableSet<TyckOrder> recursive
+  ) {
     var counting = CountingReporter.delegate(outReporter);
-    return new AyaSccTycker(new StmtTycker(counting, builder), counting, resolveInfo, MutableList.create(), MutableMap.create(), MutableMap.create());
+    return new AyaSccTycker(new StmtTycker(counting, builder, cancellation), counting, resolveInfo,
+      MutableList.create(), MutableMap.create(), MutableMap.create(), recursive);
+  }
+
+  /**
+   * A vertex references itself iff it is in a nontrivial SCC or has a self-loop,
+   * so the SCCs of the whole graph tell this for all vertices at once,
+   * instead of a search for each vertex.
+   *
+   * @param SCCs the strongly connected components of the graph, see {@link MutableGraph#topologicalOrder()}
+   */
+  public static <T> @NotNull MutableSet<T> recursive(@NotNull MutableGraph<T> graph, @NotNull ImmutableSeq<ImmutableSeq<T>> SCCs) {
+    var recursive = MutableSet.<T>create();
+    for (var scc : SCCs) {
+      if (scc.sizeGreaterThan(1)) scc.forEach(recursive::add);
+      else if (scc.isNotEmpty() && graph.suc(scc.first()).contains(scc.first())) recursive.add(scc.first());
+    }
+    return recursive;
   }
 
   public @NotNull ImmutableSeq<TyckOrder> tyckSCC(@NotNull ImmutableSeq<TyckOrder> scc) {
@@ -124,27 +161,8 @@ public record AyaSccTycker(
     }
   }
 
-  private <T> boolean hasSuc(
-    @NotNull MutableGraph<T> G,
-    @NotNull MutableSet<T> book,
-    @NotNull T vertex,
-    @NotNull T suc
-  ) {
-    if (book.contains(vertex)) return false;
-    book.add(vertex);
-    for (var test : G.suc(vertex)) {
-      if (test.equals(suc)) return true;
-      if (hasSuc(G, book, test, suc)) return true;
-    }
-    return false;
-  }
-
-  private <T> boolean selfReferencing(@NotNull MutableGraph<T> graph, @NotNull T unit) {
-    return hasSuc(graph, MutableSet.create(), unit, unit);
-  }
-
   private void checkSimpleFn(@NotNull TyckOrder order, @NotNull Decl.FnDecl fn) {
-    if (selfReferencing(resolveInfo.depGraph(), order)) {
+    if (recursive.contains(order)) {
       reporter.report(new NonTerminating(fn.sourcePos, fn.ref, null));
       throw new SCCTyckingFailed(ImmutableSeq.of(order));
     }
@@ -194,7 +212,7 @@ public record AyaSccTycker(
   private @NotNull ExprTycker reuse(@NotNull Decl decl) {
     // prevent counterexample errors from being reported to the user reporter
     if (decl.personality == Decl.Personality.COUNTEREXAMPLE)
-      return tyckerReuse.getOrPut(decl, () -> new ExprTycker(resolveInfo.primFactory(), sampleReporters.getOrPut(decl, BufferReporter::new), tycker.traceBuilder()));
+      return tyckerReuse.getOrPut(decl, () -> tycker.newTycker(resolveInfo.primFactory(), sampleReporters.getOrPut(decl, BufferReporter::new)));
     return tyckerReuse.getOrPut(decl, this::newExprTycker);
   }
 
@@ -204,7 +222,7 @@ public record AyaSccTycker(
 
   private void terck(@NotNull SeqView<TyckOrder> units) {
     var recDefs = units.filterIsInstance(TyckOrder.Body.class)
-      .filter(u -> selfReferencing(resolveInfo.depGraph(), u))
+      .filter(recursive::contains)
       .map(TyckOrder::unit);
     if (recDefs.isEmpty()) return;
     // TODO: terck other definitions
@@ -391,9 +391,13 @@ public final class PatTycker {
 
   public static Result<Subst, Boolean>
   mischa(CallTerm.Data dataCall, CtorDef ctor, @Nullable LocalCtx ctx, @NotNull TyckState state) {
-    if (ctor.pats.isNotEmpty()) return PatMatcher.tryBuildSubstTerms(state.primFactory(), ctx, ctor.pats, dataCall.args().view()
-      .map(arg -> arg.term().normalize(state, NormalizeMode.WHNF)));
-    else return Result.ok(Unfolder.buildSubst(Def.defTele(dataCall.ref()), dataCall.args()));
+    if (ctor.pats.isNotEmpty()) {
+      var matchy = PatMatcher.tryBuildSubstTerms(state.primFactory(), ctx, ctor.pats, dataCall.args().view()
+        .map(arg -> arg.term().normalize(state, NormalizeMode.WHNF)));
+      // Pattern metas may be solved when matching in a context, which unblocks normalization
+      if (ctx != null) state.normalizeCache().invalidate();
+      return matchy;
+    } else return Result.ok(Unfolder.buildSubst(Def.defTele(dataCall.ref()), dataCall.args()));
   }
 
   private record BodySubstitutor(
@@ -105,6 +105,7 @@ public final class DefEq {
 
   private boolean compare(Term lhs, Term rhs, Sub lr, Sub rl, @Nullable Term type) {
     if (lhs == rhs) return true;
+    state.checkCanceled();
     if (compareApprox(lhs, rhs, lr, rl) != null) return true;
     lhs = lhs.normalize(state, NormalizeMode.WHNF);
     rhs = rhs.normalize(state, NormalizeMode.WHNF);
@@ -418,7 +419,7 @@ public final class DefEq {
       reporter.report(new HoleProblem.BadSpineError(lhs, pos));
       return null;
     }
-    var subst = Unfolder.buildSubst(meta.contextTele, lhs.contextArgs());
+    var subst = Unfolder.buildSubst(meta.contextTele(), lhs.contextArgs());
     // In this case, the solution may not be unique (see #608),
     // so we may delay its resolution to the end of the tycking when we disallow vague unification.
     if (!allowVague && subst.overlap(argSubst).anyMatch(var -> preRhs.findUsages(var) > 0)) {
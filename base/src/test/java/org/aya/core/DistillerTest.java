@@ -86,8 +86,8 @@ public class DistillerTest {
       def test1 (X : Type) => Pi (A : Type) -> A ulift = X
       def test2 (X : Type) => (Pi (A : Type) -> A) ulift = X
       """)._2;
-    var test1 = ((FnDef) decls.get(1)).body.getLeftValue();
-    var test2 = ((FnDef) decls.get(2)).body.getLeftValue();
+    var test1 = ((FnDef) decls.get(1)).body().getLeftValue();
+    var test2 = ((FnDef) decls.get(2)).body().getLeftValue();
     assertEquals("Pi (A : Type 0) -> A = X", test1.toDoc(DistillerOptions.informative()).debugRender());
     assertEquals("(Pi (A : Type 0) -> A) = X", test2.toDoc(DistillerOptions.informative()).debugRender());
   }
@@ -9,11 +9,17 @@ import org.aya.core.term.Term;
 import org.aya.generic.util.NormalizeMode;
 import org.aya.tyck.TyckDeclTest;
 import org.aya.tyck.TyckState;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.distill.DistillerOptions;
 import org.junit.jupiter.api.Test;
 
 import java.util.Objects;
 import java.util.function.IntFunction;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NormalizeTest {
@@ -31,7 +37,7 @@ public class NormalizeTest {
       def overlap2 (a : Nat) : Nat => tracy zero a""");
     var defs = res._2;
     var state = new TyckState(res._1);
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
     assertTrue(normalizer.apply(2) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "suc"));
     assertTrue(normalizer.apply(3) instanceof CallTerm.Con conCall
@@ -53,11 +59,84 @@ public class NormalizeTest {
       def kiva : Nat => arcoe (\\ i => Nat) (Nat::suc Nat::zero) right""");
     var state = new TyckState(res._1);
     var defs = res._2;
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
     assertTrue(normalizer.apply(5) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "zero")
       && conCall.conArgs().isEmpty());
     assertTrue(normalizer.apply(6) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "suc"));
   }
+
+  @Test public void nbeAgreesWithNF() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type 0 | zero | suc Nat
+      def overlap tracy (a b : Nat) : Nat
+       | zero, a => a
+       | a, zero => a
+       | suc a, b => suc (tracy a b)
+       | a, suc b => suc (tracy a b)
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def two : Num => \\ A f x => f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def four : Num => mul two two
+      def toNat (n : Num) : Nat => n Nat (\\ m => suc m) zero
+      def eight : Nat => tracy (toNat four) (toNat four)
+      def stuck (a : Nat) : Nat => tracy (suc a) (toNat four)""");
+    // separate states, so that the normal forms cached by one mode are not seen by the other
+    var nfState = new TyckState(res._1);
+    var nbeState = new TyckState(res._1);
+    res._2.forEach(def -> {
+      if (!(def instanceof FnDef fn) || fn.body().isRight()) return;
+      var body = fn.body().getLeftValue();
+      assertEquals(
+        body.normalize(nfState, NormalizeMode.NF).toDoc(DistillerOptions.informative()).debugRender(),
+        body.normalize(nbeState, NormalizeMode.NBE).toDoc(DistillerOptions.informative()).debugRender());
+    });
+  }
+
+  @Test public void normalizeCache() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type 0 | zero | suc Nat
+      def two : Nat => suc (suc zero)
+      def four : Nat => two""");
+    var state = new TyckState(res._1);
+    var call = ((FnDef) res._2.last()).body().getLeftValue();
+    var whnf = call.normalize(state, NormalizeMode.WHNF);
+    assertEquals(0, state.normalizeCache().hits());
+    assertSame(whnf, call.normalize(state, NormalizeMode.WHNF));
+    assertEquals(1, state.normalizeCache().hits());
+    state.normalizeCache().invalidate();
+    call.normalize(state, NormalizeMode.WHNF);
+    assertEquals(1, state.normalizeCache().hits());
+    assertEquals(2, state.normalizeCache().misses());
+    // NF does not answer NBE
+    call.normalize(state, NormalizeMode.NF);
+    var hits = state.normalizeCache().hits();
+    call.normalize(state, NormalizeMode.NBE);
+    assertEquals(hits, state.normalizeCache().hits());
+  }
+
+  @Test public void cancellation() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type 0 | zero | suc Nat
+      def two : Nat => suc (suc zero)
+      def four : Nat => two""");
+    var cancellation = new CancellationIndicator() {
+      private boolean canceled = false;
+
+      @Override public boolean isCanceled() {
+        return canceled;
+      }
+
+      @Override public void cancel() {
+        canceled = true;
+      }
+    };
+    var state = new TyckState(res._1, cancellation);
+    var call = ((FnDef) res._2.last()).body().getLeftValue();
+    call.normalize(state, NormalizeMode.NF);
+    cancellation.cancel();
+    assertThrows(CancellationException.class, () -> call.normalize(state, NormalizeMode.NF));
+    assertThrows(CancellationException.class, () -> call.normalize(state, NormalizeMode.NBE));
+  }
 }
@@ -2,7 +2,13 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableSeq;
 import kala.tuple.Unit;
+import org.aya.core.def.Def;
+import org.aya.core.def.FnDef;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.SerDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.tyck.TyckDeclTest;
@@ -11,6 +17,8 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
 public class SuedeTest {
   @Test public void nat() {
     suedeAll("""
@@ -65,10 +73,24 @@ public class SuedeTest {
   private void suedeAll(@Language("TEXT") @NotNull String code) {
     var res = TyckDeclTest.successTyckDecls(code);
     var state = new SerTerm.DeState(res._1);
+    var serDefs = ser(res._2);
+    var compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableSeq.empty(), serDefs, ImmutableSeq.empty());
+    var binary = AyacFormat.read(ByteBuffer.wrap(AyacFormat.toBytes(compiled)));
+    Assertions.assertEquals(compiled, binary);
+    var eager = binary.serDefs().map(ser -> ser.de(state));
+    eager.forEach(Assertions::assertNotNull);
+    // The local variables bound in bodies are only deserialized with the bodies
+    var lazyState = new SerTerm.DeState(res._1, true);
+    var lazy = binary.serDefs().map(ser -> ser.de(lazyState));
+    Assertions.assertTrue(lazyState.localCache().size() < state.localCache().size());
+    for (var def : lazy) if (def instanceof FnDef fn) Assertions.assertSame(fn.body(), fn.body());
+    Assertions.assertEquals(state.localCache().size(), lazyState.localCache().size());
+    Assertions.assertEquals(ser(eager), ser(lazy));
+    Assertions.assertEquals(serDefs, ser(lazy));
+  }
+
+  private static @NotNull ImmutableSeq<SerDef> ser(@NotNull ImmutableSeq<? extends Def> defs) {
     var serializer = new Serializer(new Serializer.State());
-    res._2.view()
-      .map(def -> def.accept(serializer, Unit.unit()))
-      .map(ser -> ser.de(state))
-      .forEach(Assertions::assertNotNull);
+    return defs.map(def -> def.accept(serializer, Unit.unit()));
   }
 }
@@ -0,0 +1,71 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.PrimDef;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.term.FormTerm;
+import org.aya.core.term.IntroTerm;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Instantiator;
+import org.aya.core.visitor.Subst;
+import org.aya.core.visitor.TermInterner;
+import org.aya.ref.LocalVar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermInternerTest {
+  private TermInterner interner;
+  private TermInterner old;
+
+  @BeforeEach public void use() {
+    interner = new TermInterner();
+    old = TermInterner.use(interner);
+  }
+
+  @AfterEach public void restore() {
+    TermInterner.use(old);
+  }
+
+  @Test public void closedTerms() {
+    var univ = interner.intern(new FormTerm.Univ(1));
+    assertSame(univ, interner.intern(new FormTerm.Univ(1)));
+    var tuple = interner.intern(new IntroTerm.Tuple(ImmutableSeq.of(univ, univ)));
+    assertSame(tuple, interner.intern(new IntroTerm.Tuple(ImmutableSeq.of(univ, univ))));
+    assertTrue(interner.interned(tuple));
+    // terms are interned bottom-up, so a term with a subterm not interned is not
+    var fresh = new IntroTerm.Tuple(ImmutableSeq.of(new FormTerm.Univ(1), univ));
+    assertSame(fresh, interner.intern(fresh));
+    assertNotSame(univ, interner.intern(new FormTerm.Univ(2)));
+  }
+
+  @Test public void openTerms() {
+    Term open = new IntroTerm.Tuple(ImmutableSeq.of(new RefTerm(new LocalVar("x"), 0)));
+    assertSame(open, interner.intern(open));
+    assertFalse(interner.interned(open));
+  }
+
+  @Test public void released() throws InterruptedException {
+    interner.intern(new FormTerm.Univ(114514));
+    for (var i = 0; i < 100 && interner.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, interner.size());
+  }
+
+  @Test public void shared() {
+    var state = new SerTerm.DeState(new PrimDef.Factory());
+    var univ = new SerTerm.Univ(2).de(state);
+    assertSame(univ, new SerTerm.Univ(2).de(state));
+    var x = new LocalVar("x");
+    var open = new IntroTerm.Tuple(ImmutableSeq.of(new RefTerm(x, 0)));
+    var instantiated = Instantiator.instantiate(open, false, new Subst(x, univ), 0);
+    assertSame(new SerTerm.Tup(ImmutableSeq.of(new SerTerm.Univ(2))).de(state), instantiated);
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.experiments;
+
+import org.aya.core.term.ElimTerm;
+import org.aya.core.term.FormTerm;
+import org.aya.core.term.IntroTerm;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Instantiator;
+import org.aya.core.visitor.Subst;
+import org.aya.generic.Arg;
+import org.aya.ref.LocalVar;
+import org.aya.util.distill.DistillerOptions;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The fused {@link Instantiator} agrees with chained term views on a deep term,
+ * see {@code InstantiateBench} in the benchmarks for the timings.
+ */
+public class InstantiateDeepTerm {
+  private static final int DEPTH = 1000;
+
+  /** <code>\x1 => ... \xn => y x1 ... xn</code>, where y is free */
+  private static @NotNull Term deepTerm(@NotNull LocalVar free) {
+    var params = new Term.Param[DEPTH];
+    Term body = new RefTerm(free, 0);
+    for (int i = 0; i < DEPTH; i++) {
+      params[i] = new Term.Param(new LocalVar("x" + i), FormTerm.Univ.ZERO, true);
+      body = new ElimTerm.App(body, new Arg<>(params[i].toTerm(), true));
+    }
+    for (int i = DEPTH - 1; i >= 0; i--) body = new IntroTerm.Lambda(params[i], body);
+    return body;
+  }
+
+  private static void agree(@NotNull Term term, @NotNull UnaryOperator<Term> views, @NotNull UnaryOperator<Term> fused) {
+    assertEquals(views.apply(term).toDoc(DistillerOptions.informative()).debugRender(),
+      fused.apply(term).toDoc(DistillerOptions.informative()).debugRender());
+  }
+
+  @Test public void instantiate() {
+    var free = new LocalVar("y");
+    var term = deepTerm(free);
+    agree(term,
+      t -> t.view().rename().subst(new Subst(free, FormTerm.Univ.ZERO)).commit(),
+      t -> Instantiator.instantiate(t, true, new Subst(free, FormTerm.Univ.ZERO), 0));
+    agree(term,
+      t -> t.view().subst(new Subst(free, FormTerm.Univ.ZERO)).lift(2).commit(),
+      t -> Instantiator.instantiate(t, false, new Subst(free, FormTerm.Univ.ZERO), 2));
+  }
+}
@@ -7,18 +7,19 @@ import org.aya.generic.util.NormalizeMode;
 import org.aya.tyck.TyckDeclTest;
 import org.aya.tyck.TyckState;
 import org.aya.util.distill.DistillerOptions;
+import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 public class NormalizeHugeChurch {
   public static void println(@NotNull String s) {
     // System.out.println(s);
   }
 
-  @Test @Timeout(value = 5000) public void ppBench() {
-    var startup = System.currentTimeMillis();
-    var res = TyckDeclTest.successTyckDecls("""
+  private static final @Language("TEXT") String CODE = """
       def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
       def zero : Num => \\ A f x => x
       def suc (a : Num) : Num => \\ A f x => a A f (f x)
@@ -28,10 +29,14 @@ public class NormalizeHugeChurch {
       def #4 : Num => mul #2 #2
       def #16 : Num => mul #4 #4
       def #256 : Num => add #16 #16
-      """);
+      """;
+
+  @Test @Timeout(value = 5000) public void ppBench() {
+    var startup = System.currentTimeMillis();
+    var res = TyckDeclTest.successTyckDecls(CODE);
     var state = new TyckState(res._1);
     var decls = res._2;
-    var last = ((FnDef) decls.last()).body.getLeftValue();
+    var last = ((FnDef) decls.last()).body().getLeftValue();
     println("Tyck: " + (System.currentTimeMillis() - startup));
     startup = System.currentTimeMillis();
     var nf = last.normalize(null, NormalizeMode.NF);
@@ -44,4 +49,17 @@ public class NormalizeHugeChurch {
     println("Stringify: " + (System.currentTimeMillis() - startup));
     println(text);
   }
+
+  @Test @Timeout(value = 5000) public void nbeBench() {
+    var res = TyckDeclTest.successTyckDecls(CODE);
+    var last = ((FnDef) res._2.last()).body().getLeftValue();
+    var startup = System.currentTimeMillis();
+    var nf = last.normalize(new TyckState(res._1), NormalizeMode.NF);
+    println("Normalizer: " + (System.currentTimeMillis() - startup));
+    startup = System.currentTimeMillis();
+    var nbe = last.normalize(new TyckState(res._1), NormalizeMode.NBE);
+    println("Evaluator: " + (System.currentTimeMillis() - startup));
+    assertEquals(nf.toDoc(DistillerOptions.informative()).debugRender(),
+      nbe.toDoc(DistillerOptions.informative()).debugRender());
+  }
 }
@@ -20,4 +20,13 @@ public class RelationTest {
     assertEquals(Relation.Equal, Relation.Unknown.add(Relation.Equal));
     assertEquals(Relation.LessThan, Relation.Unknown.add(Relation.LessThan));
   }
+
+  @Test
+  public void bits() {
+    for (var a : Relation.values())
+      for (var b : Relation.values()) {
+        assertEquals(a.add(b), Relation.fromBits(a.bits | b.bits));
+        assertEquals(a.lessThanOrEqual(b), (a.bits & ~b.bits) == 0);
+      }
+  }
 }
@@ -2,16 +2,35 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.test;
 
+import com.google.gson.Gson;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.cli.library.BuildManifest;
 import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.library.json.LibraryConfigData;
+import org.aya.cli.library.source.DiskLibraryOwner;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.concrete.stmt.QualifiedID;
 import org.aya.core.def.PrimDef;
+import org.aya.core.serde.AyacArchive;
+import org.aya.generic.Constants;
 import org.aya.util.FileUtil;
+import org.aya.util.distill.DistillerOptions;
+import org.aya.util.reporter.BufferReporter;
+import org.aya.util.reporter.Problem;
 import org.aya.util.reporter.ThrowingReporter;
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LibraryTest {
   @Test public void test() throws IOException {
@@ -25,6 +44,111 @@ public class LibraryTest {
     assertEquals(0, compile());
   }
 
+  /** C imports B, B imports A, and a body in A is changed. */
+  @Test public void recheckTransitiveUsers(@TempDir Path dir) throws IOException {
+    var root = FileUtil.canonicalize(dir);
+    Files.writeString(root.resolve("aya.json"), """
+      {"ayaVersion": "0.13", "name": "transitive", "version": "0.1.0", "dependency": {}}
+      """);
+    var src = Files.createDirectories(root.resolve("src"));
+    Files.writeString(src.resolve("A.aya"), """
+      public open data Nat | zero | suc Nat
+      def one : Nat => suc zero
+      """);
+    Files.writeString(src.resolve("B.aya"), """
+      open import A
+      def two : Nat => suc one
+      """);
+    Files.writeString(src.resolve("C.aya"), """
+      open import B
+      def three => two
+      """);
+    assertEquals(ImmutableSeq.of("A", "B", "C"), tycked(root));
+    assertEquals(ImmutableSeq.empty(), tycked(root));
+    Files.writeString(src.resolve("A.aya"), """
+      public open data Nat | zero | suc Nat
+      def one : Nat => zero
+      """);
+    // the core of B is the same, but C sees the new `one` through `two`
+    assertEquals(ImmutableSeq.of("A", "B", "C"), tycked(root));
+  }
+
+  /** Full and incremental parallel builds agree with sequential ones, on copies of the test library. */
+  @Test public void parallel(@TempDir Path dir) throws IOException {
+    var sequential = copyLibrary(FileUtil.canonicalize(dir).resolve("sequential"));
+    var parallel = copyLibrary(FileUtil.canonicalize(dir).resolve("parallel"));
+    var full = build(sequential, 1, false);
+    assertTrue(full.tycked().isNotEmpty());
+    assertEquals(full, build(parallel, 4, false));
+    for (var root : ImmutableSeq.of(sequential, parallel))
+      Files.writeString(root.resolve("src").resolve("Binop.aya"), "\n-- edited\n", StandardOpenOption.APPEND);
+    var incremental = build(sequential, 1, false);
+    assertTrue(incremental.tycked().isNotEmpty());
+    assertEquals(incremental, build(parallel, 4, false));
+  }
+
+  /** Dependencies are loaded from their archives, which are kept while the dependencies are up-to-date. */
+  @Test public void archive(@TempDir Path dir) throws IOException {
+    var root = copyLibrary(FileUtil.canonicalize(dir));
+    assertEquals(0, build(root, 1, true).exitCode());
+    assertTrue(Files.exists(root.resolve("build").resolve("out").resolve(AyacArchive.FILE_NAME)));
+    var deps = root.resolve("build").resolve("deps");
+    assertTrue(FileUtil.collectSource(deps, AyacArchive.FILE_NAME).isNotEmpty());
+    // the separate cores of the dependencies are broken, so they can only be loaded from the archives
+    for (var core : FileUtil.collectSource(deps, Constants.AYAC_POSTFIX)) Files.writeString(core, "broken");
+    FileUtil.deleteRecursively(root.resolve("build").resolve("out"));
+    var reload = build(root, 1, false);
+    assertEquals(0, reload.exitCode());
+    assertEquals(ImmutableSeq.empty(), reload.problems());
+    assertTrue(reload.tycked().isNotEmpty());
+    // the manifests tell that nothing is changed
+    assertEquals(ImmutableSeq.empty(), build(root, 1, false).tycked());
+  }
+
+  /**
+   * @param problems other than the progress messages, whose timings differ
+   * @param tycked   modules in the order they are reported
+   * @param manifest of the library, see {@link BuildManifest}
+   */
+  private record Build(int exitCode, ImmutableSeq<String> problems, ImmutableSeq<String> tycked, Map<?, ?> manifest) {
+  }
+
+  private static @NotNull Build build(@NotNull Path root, int jobs, boolean pack) throws IOException {
+    var reporter = new BufferReporter();
+    var tycked = MutableList.<String>create();
+    var flags = new CompilerFlags(CompilerFlags.Message.ASCII, false, false, null, ImmutableSeq.empty(), null, jobs, pack);
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(root));
+    var exitCode = LibraryCompiler.newCompiler(new PrimDef.Factory(), reporter, flags, owner,
+      null, source -> tycked.append(QualifiedID.join(source.moduleName()))).start();
+    var problems = reporter.problems().view()
+      .filter(problem -> problem.level() != Problem.Severity.INFO)
+      .map(problem -> problem.sourcePos().file().display().replace(root.toString(), "") + ":"
+        + problem.sourcePos().startLine() + ":" + problem.sourcePos().startColumn() + ": "
+        + problem.brief(DistillerOptions.informative()).debugRender())
+      .toImmutableSeq();
+    Map<?, ?> manifest;
+    try (var reader = Files.newBufferedReader(owner.outDir().resolve(BuildManifest.FILE_NAME))) {
+      manifest = new Gson().fromJson(reader, Map.class);
+    }
+    return new Build(exitCode, problems, tycked.toImmutableSeq(), manifest);
+  }
+
+  /** @return a copy of the test library without the build outputs */
+  private static @NotNull Path copyLibrary(@NotNull Path root) throws IOException {
+    try (var walk = Files.walk(DIR)) {
+      for (var path : walk.toList()) {
+        var relative = DIR.relativize(path);
+        var output = false;
+        for (var name : relative) output = output || name.toString().equals("build");
+        if (output) continue;
+        var target = root.resolve(relative.toString());
+        if (Files.isDirectory(path)) Files.createDirectories(target);
+        else Files.copy(path, target);
+      }
+    }
+    return root;
+  }
+
   public static final Path DIR = TestRunner.DEFAULT_TEST_DIR.resolve("success");
 
   public static void main(String... args) throws IOException {
@@ -34,4 +158,14 @@ public class LibraryTest {
   private static int compile() throws IOException {
     return LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), DIR);
   }
+
+  /** @return the modules tycked in a build of the library, in order */
+  private static @NotNull ImmutableSeq<String> tycked(@NotNull Path root) throws IOException {
+    var tycked = MutableList.<String>create();
+    var owner = DiskLibraryOwner.from(LibraryConfigData.fromLibraryRoot(root));
+    var compiler = LibraryCompiler.newCompiler(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(),
+      owner, null, source -> tycked.append(QualifiedID.join(source.moduleName())));
+    assertEquals(0, compiler.start());
+    return tycked.toImmutableSeq();
+  }
 }
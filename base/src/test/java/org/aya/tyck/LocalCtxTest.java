@@ -0,0 +1,87 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import kala.collection.SeqView;
+import org.aya.core.term.FormTerm;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.env.LocalCtx;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.tyck.env.SeqLocalCtx;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Snapshots of local contexts agree with {@link LocalCtx#extract()}. */
+public class LocalCtxTest {
+  private final LocalVar x = new LocalVar("x");
+  private final LocalVar y = new LocalVar("y");
+  private final LocalVar z = new LocalVar("z");
+  private final LocalVar w = new LocalVar("w");
+
+  @Test public void map() {
+    snapshots(new MapLocalCtx());
+    nested(new MapLocalCtx(), LocalCtx::deriveMap);
+    nested(new MapLocalCtx(), LocalCtx::deriveSeq);
+  }
+
+  @Test public void seq() {
+    snapshots(new SeqLocalCtx());
+    nested(new SeqLocalCtx(), LocalCtx::deriveSeq);
+    nested(new SeqLocalCtx(), LocalCtx::deriveMap);
+  }
+
+  private void snapshots(@NotNull LocalCtx ctx) {
+    assertSnapshot(ctx);
+    ctx.put(x, new FormTerm.Univ(0));
+    ctx.put(y, new FormTerm.Univ(1));
+    assertSnapshot(ctx);
+    var before = ctx.extract();
+    var snapshot = ctx.snapshot();
+    ctx.with(z, new FormTerm.Univ(2), () -> {
+      assertSnapshot(ctx);
+      return null;
+    });
+    assertSnapshot(ctx);
+    // out of order
+    ctx.put(z, new FormTerm.Univ(2));
+    ctx.remove(SeqView.of(x));
+    assertSnapshot(ctx);
+    // overwrite
+    ctx.put(y, new FormTerm.Univ(3));
+    assertSnapshot(ctx);
+    // snapshots are persistent
+    assertEquals(before, snapshot.telescope());
+  }
+
+  private void nested(@NotNull LocalCtx parent, @NotNull Function<LocalCtx, LocalCtx> derive) {
+    parent.put(x, new FormTerm.Univ(0));
+    var child = derive.apply(parent);
+    child.put(y, new FormTerm.Univ(1));
+    assertSnapshot(child);
+    var before = child.extract();
+    var snapshot = child.snapshot();
+    parent.put(z, new FormTerm.Univ(2));
+    assertSnapshot(child);
+    parent.with(w, new FormTerm.Univ(3), () -> {
+      assertSnapshot(child);
+      return null;
+    });
+    assertSnapshot(child);
+    parent.remove(SeqView.of(x));
+    assertSnapshot(child);
+    child.put(y, new FormTerm.Univ(4));
+    assertSnapshot(child);
+    assertSnapshot(parent);
+    assertEquals(before, snapshot.telescope());
+  }
+
+  private static void assertSnapshot(@NotNull LocalCtx ctx) {
+    assertEquals(ctx.extract(), ctx.snapshot().telescope());
+    // the second time is taken from the cache
+    assertEquals(ctx.extract(), ctx.snapshot().telescope());
+  }
+}
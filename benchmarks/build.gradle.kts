@@ -0,0 +1,40 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+
+dependencies {
+  implementation(project(":cli"))
+  val deps: java.util.Properties by rootProject.ext
+  val jmhVersion = deps.getProperty("version.jmh")
+  implementation("org.openjdk.jmh", "jmh-core", version = jmhVersion)
+  annotationProcessor("org.openjdk.jmh", "jmh-generator-annprocess", version = jmhVersion)
+}
+
+tasks.withType<AbstractPublishToMaven>().configureEach { enabled = false }
+
+val jmhReport = buildDir.resolve("reports/jmh/results.json")
+val successLibrary = buildDir.resolve("success")
+
+/** The benchmarks compile the `success` test library, so they work on a copy without its build outputs. */
+val copySuccessLibrary = tasks.register<Sync>("copySuccessLibrary") {
+  from(rootDir.resolve("base/src/test/resources/success")) { exclude("**/build/**") }
+  into(successLibrary)
+}
+
+/**
+ * Run with `./gradlew :benchmarks:jmh`, or `-Pjmh=<regex>` to select benchmarks.
+ * Results are written as JSON so that they can be compared across commits.
+ * The forked JVMs inherit the JVM arguments (including `--enable-preview`) of this task.
+ */
+tasks.register<JavaExec>("jmh") {
+  group = "benchmark"
+  dependsOn(tasks.classes, copySuccessLibrary)
+  classpath = sourceSets.main.get().runtimeClasspath
+  mainClass.set("org.openjdk.jmh.Main")
+  enableAssertions = false
+  systemProperty("aya.benchmarks.success", successLibrary.absolutePath)
+  outputs.file(jmhReport)
+  outputs.upToDateWhen { false }
+  doFirst { jmhReport.parentFile.mkdirs() }
+  args("-rf", "json", "-rff", jmhReport.absolutePath)
+  if (hasProperty("jmh")) args(property("jmh").toString())
+}
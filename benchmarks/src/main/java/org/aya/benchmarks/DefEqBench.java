@@ -0,0 +1,64 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import org.aya.core.def.PrimDef;
+import org.aya.core.term.FormTerm;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.TyckState;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.tyck.unify.DefEq;
+import org.aya.util.Ordering;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing alpha-equivalent Pi types of the form
+ * {@code Pi (x0 : Type 0) -> Pi (x1 : x0 -> x0) -> Pi (x2 : x1 -> x1) -> ... -> x0},
+ * where the binders on both sides are distinct.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DefEqBench {
+  @Param({"100", "1000"}) public int size;
+  private Term lhs;
+  private Term rhs;
+  private PrimDef.Factory factory;
+
+  @Setup public void setup() {
+    lhs = pi(size);
+    rhs = pi(size);
+    factory = new PrimDef.Factory();
+  }
+
+  private static @NotNull Term arrow(@NotNull Term dom, @NotNull Term cod) {
+    return new FormTerm.Pi(new Term.Param(new LocalVar("_"), dom, true), cod);
+  }
+
+  private static @NotNull Term pi(int size) {
+    var vars = new LocalVar[size];
+    for (int i = 0; i < size; i++) vars[i] = new LocalVar("x" + i);
+    Term body = new RefTerm(vars[0], 0);
+    for (int i = size - 1; i > 0; i--) {
+      var prev = new RefTerm(vars[i - 1], 0);
+      body = new FormTerm.Pi(new Term.Param(vars[i], arrow(prev, prev), true), body);
+    }
+    return new FormTerm.Pi(new Term.Param(vars[0], FormTerm.Univ.ZERO, true), body);
+  }
+
+  @Benchmark public boolean compare() {
+    var defEq = new DefEq(Ordering.Eq, ThrowingReporter.INSTANCE, false, false, null,
+      new TyckState(factory), SourcePos.NONE, new MapLocalCtx());
+    return defEq.compare(lhs, rhs, new FormTerm.Univ(1));
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
+import org.aya.cli.parse.AyaParserImpl;
+import org.aya.concrete.desugar.AyaBinOpSet;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.core.def.Def;
+import org.aya.core.def.PrimDef;
+import org.aya.resolve.ResolveInfo;
+import org.aya.resolve.context.EmptyContext;
+import org.aya.resolve.module.EmptyModuleLoader;
+import org.aya.tyck.StmtTycker;
+import org.aya.util.error.SourceFile;
+import org.aya.util.reporter.ThrowingReporter;
+import org.intellij.lang.annotations.Language;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Programs and the compiler pipeline shared by the benchmarks.
+ */
+interface Fixtures {
+  @Language("TEXT") @NotNull String CHURCH = """
+    def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+    def zero : Num => \\ A f x => x
+    def suc (a : Num) : Num => \\ A f x => a A f (f x)
+    def add (a b : Num) : Num => \\A f x => a A f (b A f x)
+    def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+    def #2 : Num => suc (suc zero)
+    def #4 : Num => mul #2 #2
+    def #16 : Num => mul #4 #4
+    def #256 : Num => add #16 #16
+    """;
+
+  @Language("TEXT") @NotNull String NAT = """
+    open data Nat : Type 0 | zero | suc Nat
+    def add (a b : Nat) : Nat
+     | zero, b => b
+     | suc a, b => suc (add a b)
+    """;
+
+  /**
+   * @return a copy of the {@code success} test library in the build directory, made by the {@code jmh} Gradle task,
+   * so that compiling it does not write to the source tree
+   */
+  static @NotNull Path library() {
+    var library = System.getProperty("aya.benchmarks.success");
+    if (library == null) throw new IllegalStateException("Run the benchmarks with `./gradlew :benchmarks:jmh`");
+    return Path.of(library);
+  }
+
+  /** A self-contained program with {@code size} functions, each calling the previous one. */
+  static @NotNull String chain(int size) {
+    var builder = new StringBuilder(NAT);
+    builder.append("def f0 (a : Nat) : Nat => add a a\n");
+    for (int i = 1; i < size; i++)
+      builder.append("def f").append(i).append(" (a : Nat) : Nat => add (f").append(i - 1).append(" a) a\n");
+    return builder.toString();
+  }
+
+  static @NotNull ImmutableSeq<Stmt> parse(@NotNull String text) {
+    return new AyaParserImpl(ThrowingReporter.INSTANCE).program(new SourceFile("bench", Path.of("bench"), text));
+  }
+
+  static @NotNull PrimDef.Factory resolve(@NotNull ImmutableSeq<Stmt> stmts) {
+    var factory = new PrimDef.Factory();
+    var module = new EmptyContext(ThrowingReporter.INSTANCE, Path.of("bench")).derive("bench");
+    var info = new ResolveInfo(factory, module, stmts, new AyaBinOpSet(ThrowingReporter.INSTANCE));
+    Stmt.resolve(stmts, info, EmptyModuleLoader.INSTANCE);
+    return factory;
+  }
+
+  static @NotNull Tuple2<PrimDef.Factory, ImmutableSeq<Def>> tyck(@NotNull String text) {
+    var stmts = parse(text);
+    var factory = resolve(stmts);
+    var tycker = new StmtTycker(ThrowingReporter.INSTANCE, null);
+    return Tuple.of(factory, stmts.view()
+      .map(stmt -> stmt instanceof Decl decl ? tycker.tyck(decl, tycker.newTycker(factory)) : null)
+      .filter(Objects::nonNull).toImmutableSeq());
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.cli.parse.AyaParserImpl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.core.def.PrimDef;
+import org.aya.generic.Constants;
+import org.aya.util.FileUtil;
+import org.aya.util.error.SourceFile;
+import org.aya.util.reporter.ThrowingReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AyaParserImpl#program} over the sources of the {@code success} library,
+ * and {@link Stmt#resolve} over a generated program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrontendBench {
+  @Param({"100", "1000"}) public int size;
+  private ImmutableSeq<SourceFile> sources;
+  private String chain;
+  private ImmutableSeq<Stmt> parsed;
+
+  @Setup public void setup() throws IOException {
+    var files = FileUtil.collectSource(Fixtures.library().resolve("src"), Constants.AYA_POSTFIX);
+    var builder = MutableList.<SourceFile>create();
+    for (var file : files) builder.append(new SourceFile(file.toString(), file, Files.readString(file)));
+    sources = builder.toImmutableSeq();
+    chain = Fixtures.chain(size);
+  }
+
+  /** Resolving mutates the concrete syntax, so every invocation needs a fresh one */
+  @Setup(Level.Invocation) public void parseChain() {
+    parsed = Fixtures.parse(chain);
+  }
+
+  @Benchmark public ImmutableSeq<ImmutableSeq<Stmt>> parseLibrary() {
+    var parser = new AyaParserImpl(ThrowingReporter.INSTANCE);
+    return sources.map(parser::program);
+  }
+
+  @Benchmark public ImmutableSeq<Stmt> parse() {
+    return Fixtures.parse(chain);
+  }
+
+  @Benchmark public PrimDef.Factory resolve() {
+    return Fixtures.resolve(parsed);
+  }
+}
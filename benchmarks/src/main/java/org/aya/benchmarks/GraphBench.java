@@ -0,0 +1,57 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.util.MutableGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graph algorithms on graphs of 10^5 vertices: a chain, which is the deepest search,
+ * and a random graph with a few edges per vertex, which has a giant SCC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBench {
+  public static final int SIZE = 100_000;
+  @Param({"chain", "random"}) public String shape;
+  private MutableGraph<Integer> graph;
+
+  @Setup public void setup() {
+    graph = MutableGraph.create();
+    switch (shape) {
+      case "chain" -> {
+        for (var v = 0; v < SIZE - 1; v++) graph.sucMut(v).append(v + 1);
+        graph.sucMut(SIZE - 1);
+      }
+      case "random" -> {
+        var random = new Random(42);
+        for (var v = 0; v < SIZE; v++) {
+          var suc = graph.sucMut(v);
+          for (var e = 0; e < 3; e++) suc.append(random.nextInt(SIZE));
+        }
+      }
+      default -> throw new IllegalArgumentException(shape);
+    }
+  }
+
+  @Benchmark public ImmutableSeq<ImmutableSeq<Integer>> topologicalOrder() {
+    return graph.topologicalOrder();
+  }
+
+  @Benchmark public MutableGraph<Integer> transpose() {
+    return graph.transpose();
+  }
+
+  /** The last vertex is the farthest one in the chain */
+  @Benchmark public boolean hasPath() {
+    return graph.hasPath(0, SIZE - 1);
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import org.aya.core.term.ElimTerm;
+import org.aya.core.term.FormTerm;
+import org.aya.core.term.IntroTerm;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Instantiator;
+import org.aya.core.visitor.Subst;
+import org.aya.generic.Arg;
+import org.aya.ref.LocalVar;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing the fused {@link Instantiator} with stacked term views on
+ * <code>\x1 => ... \xn => y x1 ... xn</code>, where y is free,
+ * see also {@code InstantiateDeepTerm} in the tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InstantiateBench {
+  @Param({"1000"}) public int depth;
+  private LocalVar free;
+  private Term term;
+
+  @Setup public void setup() {
+    free = new LocalVar("y");
+    var params = new Term.Param[depth];
+    Term body = new RefTerm(free, 0);
+    for (int i = 0; i < depth; i++) {
+      params[i] = new Term.Param(new LocalVar("x" + i), FormTerm.Univ.ZERO, true);
+      body = new ElimTerm.App(body, new Arg<>(params[i].toTerm(), true));
+    }
+    for (int i = depth - 1; i >= 0; i--) body = new IntroTerm.Lambda(params[i], body);
+    term = body;
+  }
+
+  @Benchmark public Term renameSubstViews() {
+    return term.view().rename().subst(new Subst(free, FormTerm.Univ.ZERO)).commit();
+  }
+
+  @Benchmark public Term renameSubstFused() {
+    return Instantiator.instantiate(term, true, new Subst(free, FormTerm.Univ.ZERO), 0);
+  }
+
+  @Benchmark public Term substLiftViews() {
+    return term.view().subst(new Subst(free, FormTerm.Univ.ZERO)).lift(2).commit();
+  }
+
+  @Benchmark public Term substLiftFused() {
+    return Instantiator.instantiate(term, false, new Subst(free, FormTerm.Univ.ZERO), 2);
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.PrimDef;
+import org.aya.util.reporter.ThrowingReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling the {@code success} library from scratch, which is dominated by
+ * {@link org.aya.tyck.order.AyaSccTycker}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LibraryBench {
+  @Param({"1", "4"}) public int parallelism;
+
+  @Benchmark public int tyckLibrary() throws IOException {
+    var flags = new CompilerFlags(CompilerFlags.Message.ASCII, false, true, null,
+      ImmutableSeq.empty(), null, parallelism, false);
+    return LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, Fixtures.library());
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import org.aya.core.def.FnDef;
+import org.aya.core.term.Term;
+import org.aya.generic.util.NormalizeMode;
+import org.aya.tyck.TyckState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalizing Church numerals, see also {@code NormalizeHugeChurch} in the tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NormalizeBench {
+  private Term term;
+  private TyckState state;
+
+  @Setup public void setup() {
+    var res = Fixtures.tyck(Fixtures.CHURCH);
+    state = new TyckState(res._1);
+    term = ((FnDef) res._2.last()).body().getLeftValue();
+  }
+
+  /** The cache would answer every invocation after the first one */
+  @Setup(Level.Invocation) public void invalidate() {
+    state.normalizeCache().invalidate();
+  }
+
+  @Benchmark public Term normalizer() {
+    return term.normalize(state, NormalizeMode.NF);
+  }
+
+  @Benchmark public Term evaluator() {
+    return term.normalize(state, NormalizeMode.NBE);
+  }
+
+  @Benchmark public Term whnf() {
+    return term.normalize(state, NormalizeMode.WHNF);
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.benchmarks;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Unit;
+import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.Def;
+import org.aya.core.def.PrimDef;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.serde.Serializer;
+import org.aya.generic.Constants;
+import org.aya.util.FileUtil;
+import org.aya.util.reporter.ThrowingReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips of the cores of a generated program through {@link Serializer},
+ * {@link AyacFormat} and {@link org.aya.core.serde.SerDef#de},
+ * and loading the cores of the {@code success} library in {@link AyacFormat} compared to Java serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerdeBench {
+  @Param({"100"}) public int size;
+  private PrimDef.Factory factory;
+  private ImmutableSeq<Def> defs;
+  private byte[] bytes;
+
+  @Setup public void setup() {
+    var res = Fixtures.tyck(Fixtures.chain(size));
+    factory = res._1;
+    defs = res._2;
+    bytes = serialize();
+  }
+
+  @Benchmark public byte[] serialize() {
+    var serializer = new Serializer(new Serializer.State());
+    var serDefs = defs.map(def -> def.accept(serializer, Unit.unit()));
+    return AyacFormat.toBytes(new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(),
+      ImmutableSeq.empty(), serDefs, ImmutableSeq.empty()));
+  }
+
+  @Benchmark public ImmutableSeq<Def> deserialize() {
+    var state = new SerTerm.DeState(factory);
+    return AyacFormat.read(ByteBuffer.wrap(bytes)).serDefs().map(ser -> ser.de(state));
+  }
+
+  /** The compiled cores of the {@code success} library, in both formats. */
+  @State(Scope.Benchmark)
+  public static class Library {
+    private ImmutableSeq<ByteBuffer> binary;
+    private ImmutableSeq<byte[]> java;
+
+    @Setup public void setup() throws IOException {
+      var flags = new CompilerFlags(CompilerFlags.Message.ASCII, false, true, null,
+        ImmutableSeq.empty(), null, 1, false);
+      var library = Fixtures.library();
+      if (LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, library) != 0)
+        throw new IllegalStateException("Cannot compile " + library);
+      var cores = FileUtil.collectSource(library.resolve("build"), Constants.AYAC_POSTFIX);
+      var binary = MutableList.<ByteBuffer>create();
+      var java = MutableList.<byte[]>create();
+      for (var path : cores) {
+        binary.append(ByteBuffer.wrap(Files.readAllBytes(path)));
+        var out = new ByteArrayOutputStream();
+        try (var stream = new ObjectOutputStream(out)) {
+          stream.writeObject(AyacFormat.read(path));
+        }
+        java.append(out.toByteArray());
+      }
+      this.binary = binary.toImmutableSeq();
+      this.java = java.toImmutableSeq();
+    }
+  }
+
+  @Benchmark public ImmutableSeq<CompiledAya> loadBinary(Library library) {
+    return library.binary.map(buffer -> AyacFormat.read(buffer.duplicate()));
+  }
+
+  @Benchmark public MutableList<Object> loadJavaSerialization(Library library) throws IOException, ClassNotFoundException {
+    var result = MutableList.create();
+    for (var bytes : library.java) {
+      try (var stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        result.append(stream.readObject());
+      }
+    }
+    return result;
+  }
+}
@@ -46,7 +46,7 @@ public class Main extends MainArgs implements Callable<Integer> {
     var flags = new CompilerFlags(message, interruptedTrace,
       action.compile.isRemake, distillation,
       modulePaths().view().map(Paths::get),
-      outputPath);
+      outputPath, action.compile.jobs, action.compile.pack);
 
     if (action.compile.isLibrary || action.compile.isRemake) {
       // TODO: move to a new tool
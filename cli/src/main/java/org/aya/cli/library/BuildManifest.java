@@ -0,0 +1,180 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.QualifiedID;
+import org.aya.core.def.Def;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.Serializer;
+import org.aya.resolve.ResolveInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Content hashes of library sources and their compiled interfaces, stored in the output directory.
+ * A module is rechecked if its source is changed, or if the interface of any of its imports
+ * is changed during the current build. The interface of a module covers the interfaces of its imports,
+ * so that a change reaches the modules depending on it through other modules.
+ * Modification times are never consulted.
+ */
+public final class BuildManifest {
+  public static final @NotNull String FILE_NAME = "manifest.json";
+
+  /** @apiNote for GSON. */
+  private static final class Data {
+    public int coreVersion;
+    public Map<String, Entry> modules;
+  }
+
+  /** @apiNote for GSON. */
+  private static final class Entry {
+    public String sourceHash;
+    public String interfaceHash;
+  }
+
+  private final @NotNull Path file;
+  private final @NotNull MutableMap<String, Entry> entries;
+  /** Source hashes computed during the current build */
+  private final @NotNull MutableMap<String, String> sourceHashes = MutableMap.create();
+  /** Modules whose interface hash is changed during the current build */
+  private final @NotNull MutableSet<String> interfaceChanged = MutableSet.create();
+
+  private BuildManifest(@NotNull Path file, @NotNull MutableMap<String, Entry> entries) {
+    this.file = file;
+    this.entries = entries;
+  }
+
+  public static @NotNull BuildManifest load(@NotNull Path outDir) {
+    var file = outDir.resolve(FILE_NAME);
+    var entries = MutableMap.<String, Entry>create();
+    if (Files.exists(file)) try (var reader = Files.newBufferedReader(file)) {
+      var data = new Gson().fromJson(reader, Data.class);
+      // Cores of another format version are rebuilt
+      if (data != null && data.modules != null && data.coreVersion == AyacFormat.VERSION) data.modules.forEach((k, v) -> {
+        if (v != null && v.sourceHash != null && v.interfaceHash != null) entries.set(k, v);
+      });
+    } catch (IOException | JsonParseException ignored) {
+      // A broken manifest only costs a rebuild
+    }
+    return new BuildManifest(file, entries);
+  }
+
+  public synchronized void save() throws IOException {
+    var data = new Data();
+    data.coreVersion = AyacFormat.VERSION;
+    data.modules = new HashMap<>();
+    entries.forEach(data.modules::put);
+    Files.createDirectories(file.getParent());
+    try (var writer = Files.newBufferedWriter(file)) {
+      new Gson().toJson(data, writer);
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    sourceHashes.clear();
+    interfaceChanged.clear();
+  }
+
+  /** @return whether the source file or its compiled core is changed since last build */
+  public synchronized boolean sourceModified(@NotNull LibrarySource source) {
+    if (!Files.exists(source.coreFile())) return true;
+    var entry = entries.getOrNull(key(source));
+    if (entry == null) return true;
+    var hash = sourceHash(source);
+    return hash == null || !hash.equals(entry.sourceHash);
+  }
+
+  /** @return whether the source needs to be rechecked, judging from itself and its imports */
+  public synchronized boolean needsRecheck(@NotNull LibrarySource source) {
+    return sourceModified(source) || source.imports().anyMatch(i -> interfaceChanged.contains(key(i)));
+  }
+
+  /** Record a newly compiled module, called after its core is saved. */
+  public synchronized void update(
+    @NotNull LibrarySource source,
+    @NotNull ResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<Def> defs
+  ) {
+    var key = key(source);
+    var sourceHash = sourceHash(source);
+    if (sourceHash == null) return;
+    var entry = new Entry();
+    entry.sourceHash = sourceHash;
+    entry.interfaceHash = interfaceHash(source, resolveInfo, defs);
+    var old = entries.put(key, entry);
+    if (old.isEmpty() || !entry.interfaceHash.equals(old.get().interfaceHash))
+      interfaceChanged.add(key);
+  }
+
+  private @Nullable String sourceHash(@NotNull LibrarySource source) {
+    var key = key(source);
+    var hash = sourceHashes.getOrNull(key);
+    if (hash != null) return hash;
+    try {
+      hash = hash(source.readCode().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      return null;
+    }
+    sourceHashes.set(key, hash);
+    return hash;
+  }
+
+  /**
+   * Hash of the compiled core, with local variables numbered from zero so that
+   * the hash does not depend on what else is compiled in the same build.
+   * Definition bodies are included, because exported functions may be unfolded in dependents.
+   * The core refers to the imports by name only, so the interfaces of the imports are included as well,
+   * which are recorded already since imports are compiled first.
+   */
+  private @NotNull String interfaceHash(
+    @NotNull LibrarySource source,
+    @NotNull ResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<Def> defs
+  ) {
+    var compiledAya = CompiledAya.from(resolveInfo, defs, new Serializer.State());
+    var builder = new StringBuilder(hash(AyacFormat.toBytes(compiledAya)));
+    source.imports().stream().map(BuildManifest::key).distinct().sorted().forEach(key -> {
+      var entry = entries.getOrNull(key);
+      builder.append('\n').append(key).append(' ').append(entry != null ? entry.interfaceHash : "");
+    });
+    return hash(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static @NotNull String hash(byte @NotNull [] bytes) {
+    return hash(ByteBuffer.wrap(bytes));
+  }
+
+  /** Does not move the position of the buffer. */
+  static @NotNull String hash(@NotNull ByteBuffer bytes) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      digest.update(bytes.duplicate());
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static @NotNull String key(@NotNull LibrarySource source) {
+    return QualifiedID.join(source.moduleName());
+  }
+}
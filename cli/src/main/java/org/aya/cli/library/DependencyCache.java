@@ -0,0 +1,147 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.PrimDef;
+import org.aya.ref.DefVar;
+import org.aya.resolve.ResolveInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dependency modules loaded from compiled cores, shared by the compilations in the process,
+ * so that a dependency like the standard library is deserialized once for all workspaces
+ * of the language server and all their rebuilds.
+ * Modules are keyed by the path and the content hash of their compiled cores,
+ * and are dropped when no {@link Lease} holds them any more.
+ * A module whose imports are loaded again is outdated, see {@link Lease#replace}.
+ */
+public final class DependencyCache {
+  public static final @NotNull DependencyCache SHARED = new DependencyCache();
+
+  /** @param core the compiled core, or the archive containing it */
+  record Location(@NotNull Path core, @NotNull ImmutableSeq<String> module) {
+  }
+
+  record Key(@NotNull Location location, @NotNull String hash) {
+  }
+
+  /**
+   * A loaded module is never modified, the compilations using it only read it.
+   * It is deserialized by a state of its own, which only knows the definitions of the module and its imports,
+   * so function bodies deserialized on first use do not depend on the compilation loading the module.
+   *
+   * @param imports loaded again in each compilation, which brings back their definitions
+   * @param defs    definitions of the module and its submodules, used when deserializing its dependents
+   * @param prims   registered again to the primitive factory of each compilation
+   */
+  record Module(
+    @NotNull ResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<ImmutableSeq<String>> imports,
+    @NotNull Map<ImmutableSeq<String>, Map<String, DefVar<?, ?>>> defs,
+    @NotNull ImmutableSeq<PrimDef> prims
+  ) {
+  }
+
+  private static final class Entry {
+    private final @NotNull Module module;
+    private int leases = 0;
+
+    private Entry(@NotNull Module module) {
+      this.module = module;
+    }
+  }
+
+  private final @NotNull Map<Key, Entry> entries = new HashMap<>();
+  private long hits = 0;
+  private long misses = 0;
+
+  /** @return a lease for a workspace, which holds the modules it loads until closed */
+  public @NotNull Lease lease() {
+    return new Lease();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  private void release(@NotNull Key key) {
+    var entry = entries.get(key);
+    if (entry != null && --entry.leases == 0) entries.remove(key);
+  }
+
+  public final class Lease implements AutoCloseable {
+    /** The version of each module last loaded, older versions are released when replaced */
+    private final @NotNull Map<Location, Key> held = new HashMap<>();
+
+    private Lease() {
+    }
+
+    @Nullable Module get(@NotNull Key key) {
+      synchronized (DependencyCache.this) {
+        var entry = entries.get(key);
+        if (entry == null) {
+          misses++;
+          return null;
+        }
+        hits++;
+        hold(key);
+        return entry.module;
+      }
+    }
+
+    /** The module loaded first is kept if another workspace loads the same module at the same time. */
+    void put(@NotNull Key key, @NotNull Module module) {
+      synchronized (DependencyCache.this) {
+        entries.putIfAbsent(key, new Entry(module));
+        hold(key);
+      }
+    }
+
+    /**
+     * Replace a module which refers to outdated imports by the one loaded again,
+     * keeping the leases of the outdated module, unless it is replaced already.
+     */
+    void replace(@NotNull Key key, @NotNull Module outdated, @NotNull Module module) {
+      synchronized (DependencyCache.this) {
+        // counted as a hit by get
+        hits--;
+        misses++;
+        var entry = entries.get(key);
+        if (entry != null && entry.module == outdated) {
+          var fresh = new Entry(module);
+          fresh.leases = entry.leases;
+          entries.put(key, fresh);
+        } else entries.putIfAbsent(key, new Entry(module));
+        hold(key);
+      }
+    }
+
+    private void hold(@NotNull Key key) {
+      var old = held.put(key.location, key);
+      if (key.equals(old)) return;
+      entries.get(key).leases++;
+      if (old != null) release(old);
+    }
+
+    @Override public void close() {
+      synchronized (DependencyCache.this) {
+        held.values().forEach(DependencyCache.this::release);
+        held.clear();
+      }
+    }
+  }
+}
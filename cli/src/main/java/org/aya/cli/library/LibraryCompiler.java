@@ -3,6 +3,8 @@
 package org.aya.cli.library;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
 import org.aya.cli.library.json.LibraryConfigData;
 import org.aya.cli.library.source.DiskLibraryOwner;
@@ -13,6 +15,7 @@ import org.aya.cli.single.CompilerFlags;
 import org.aya.cli.utils.AyaCompiler;
 import org.aya.concrete.stmt.QualifiedID;
 import org.aya.core.def.PrimDef;
+import org.aya.core.serde.AyacArchive;
 import org.aya.generic.util.InternalException;
 import org.aya.resolve.context.Context;
 import org.aya.resolve.error.ModNotFoundError;
@@ -21,35 +24,93 @@ import org.aya.resolve.module.ModuleLoader;
 import org.aya.util.FileUtil;
 import org.aya.util.MutableGraph;
 import org.aya.util.StringUtil;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.CountingReporter;
 import org.aya.util.reporter.Reporter;
 import org.aya.util.tyck.OrgaTycker;
 import org.aya.util.tyck.SCCTycker;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author kiva
  */
 public class LibraryCompiler {
+  /** Notified on the compiling thread when a module is tycked and all its problems are reported. */
+  public interface ModuleListener {
+    @NotNull ModuleListener NONE = source -> {
+    };
+
+    enum Phase {
+      PARSE, RESOLVE, TYCK, SERIALIZE,
+    }
+
+    void onTycked(@NotNull LibrarySource source);
+
+    /**
+     * Notified on the thread running the phase, which may run in parallel with other modules.
+     * Modules loaded from compiled cores are not reported.
+     */
+    default void onPhase(@NotNull LibrarySource source, @NotNull Phase phase, long nanos) {
+    }
+  }
+
   private final @NotNull LibraryOwner owner;
   private final @NotNull CachedModuleLoader<LibraryModuleLoader> moduleLoader;
   private final @NotNull CountingReporter reporter;
   private final @NotNull CompilerFlags flags;
+  private final @NotNull BuildManifest manifest;
 
   private LibraryCompiler(@NotNull Reporter reporter, @NotNull CompilerFlags flags, @NotNull LibraryOwner owner, @NotNull LibraryModuleLoader.United states) {
     var counting = CountingReporter.delegate(reporter);
-    this.moduleLoader = new CachedModuleLoader<>(new LibraryModuleLoader(counting, owner, states));
+    this.manifest = BuildManifest.load(owner.outDir());
+    this.moduleLoader = new CachedModuleLoader<>(new LibraryModuleLoader(counting, owner, states, manifest));
     this.reporter = counting;
     this.flags = flags;
     this.owner = owner;
   }
 
   public static @NotNull LibraryCompiler newCompiler(@NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, @NotNull CompilerFlags flags, @NotNull LibraryOwner owner) {
-    return new LibraryCompiler(reporter, flags, owner, new LibraryModuleLoader.United(primFactory));
+    return newCompiler(primFactory, reporter, flags, owner, null);
+  }
+
+  public static @NotNull LibraryCompiler newCompiler(
+    @NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, @NotNull CompilerFlags flags,
+    @NotNull LibraryOwner owner, @Nullable CancellationIndicator cancellation
+  ) {
+    return newCompiler(primFactory, reporter, flags, owner, cancellation, ModuleListener.NONE);
+  }
+
+  /**
+   * @param cancellation polled during the build, which throws {@link CancellationException} when canceled.
+   *                     Sources being compiled at that time are forgotten, see {@link LibrarySource#forget()}.
+   * @param listener     notified of the modules tycked in the library and its dependencies
+   */
+  public static @NotNull LibraryCompiler newCompiler(
+    @NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, @NotNull CompilerFlags flags,
+    @NotNull LibraryOwner owner, @Nullable CancellationIndicator cancellation, @NotNull ModuleListener listener
+  ) {
+    return newCompiler(primFactory, reporter, flags, owner, cancellation, listener, null);
+  }
+
+  /** @param dependencies reused instead of deserialized again, and kept for later builds until the lease is closed */
+  public static @NotNull LibraryCompiler newCompiler(
+    @NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, @NotNull CompilerFlags flags,
+    @NotNull LibraryOwner owner, @Nullable CancellationIndicator cancellation, @NotNull ModuleListener listener,
+    @Nullable DependencyCache.Lease dependencies
+  ) {
+    var states = new LibraryModuleLoader.United(primFactory, cancellation, listener, dependencies);
+    return new LibraryCompiler(reporter, flags, owner, states);
   }
 
   public static @NotNull LibraryCompiler newCompiler(@NotNull PrimDef.Factory primFactory, @NotNull Reporter reporter, @NotNull CompilerFlags flags, @NotNull Path libraryRoot) throws IOException {
@@ -69,8 +130,10 @@ public class LibraryCompiler {
   private void resolveImports(@NotNull LibrarySource source) throws IOException {
     if (source.program().value != null) return; // already parsed
     var owner = source.owner();
-    var program = new AyaParserImpl(reporter).program(owner.locator(), source.file());
+    var startTime = System.nanoTime();
+    var program = new AyaParserImpl(reporter).program(source.toSourceFile(source.readCode()));
     source.program().value = program;
+    moduleLoader.loader.states().listener().onPhase(source, ModuleListener.Phase.PARSE, System.nanoTime() - startTime);
     var finder = new ImportResolver((mod, sourcePos) -> {
       var file = owner.findModule(mod);
       if (file == null) {
@@ -92,6 +155,7 @@ public class LibraryCompiler {
     reportNest("[Info] Resolving source file dependency");
     var startTime = System.currentTimeMillis();
     for (var file : owner.librarySources()) {
+      checkCanceled();
       resolveImports(file);
       collectDep(graph, file);
     }
@@ -135,18 +199,22 @@ public class LibraryCompiler {
 
     var depGraph = resolveLibraryImports();
     var make = make(depGraph);
+    var archive = owner.outDir().resolve(AyacArchive.FILE_NAME);
+    // modules are rebuilt, the archive is outdated
+    if (!make) Files.deleteIfExists(archive);
+    if (flags.pack() && Files.notExists(archive)) {
+      reportNest("[Info] Packing compiled cores into " + archive);
+      AyacArchive.pack(owner.outDir(), archive);
+    }
     reporter.reportNest("Library loaded in " + StringUtil.timeToString(
       System.currentTimeMillis() - startTime), LibraryOwner.DEFAULT_INDENT + 2);
     return make;
   }
 
   private void cleanReused() throws IOException {
-    owner.librarySources().forEach(src -> {
-      src.program().value = null;
-      src.tycked().value = null;
-      src.resolveInfo().value = null;
-    });
+    owner.librarySources().forEach(LibrarySource::forget);
     FileUtil.deleteRecursively(owner.outDir());
+    manifest.clear();
   }
 
   /**
@@ -167,8 +235,23 @@ public class LibraryCompiler {
     }
 
     Files.createDirectories(owner.outDir());
-    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader), changed);
-    SCCs.forEachChecked(tycker::tyckSCC);
+    var listener = moduleLoader.loader.states().listener();
+    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader, manifest, listener), changed);
+    try {
+      if (flags.parallelism() > 1) tyckParallel(SCCs, tycker);
+      else SCCs.forEachChecked(scc -> {
+        checkCanceled();
+        tycker.tyckSCC(scc);
+      });
+    } catch (CancellationException e) {
+      // Resolved but not saved, so they must be parsed again
+      changed.E().keysView()
+        .filter(source -> Files.notExists(source.coreFile()))
+        .forEach(LibrarySource::forget);
+      throw e;
+    } finally {
+      manifest.save();
+    }
     if (tycker.skippedSet.isNotEmpty()) {
       reporter.reportString("I dislike the following module(s):");
       tycker.skippedSet.forEach(f -> reportNest(String.format("%s (%s)", QualifiedID.join(f.moduleName()), f.displayPath())));
@@ -179,11 +262,89 @@ public class LibraryCompiler {
     return false;
   }
 
+  /**
+   * Tyck SCCs on a work-stealing pool, where each SCC is scheduled as soon as all its imports are tycked.
+   * Problems are buffered per SCC and replayed in topological order, so the output does not depend on scheduling.
+   */
+  private void tyckParallel(
+    @NotNull ImmutableSeq<ImmutableSeq<LibrarySource>> SCCs,
+    @NotNull LibraryOrgaTycker tycker
+  ) throws IOException {
+    var buffers = SCCs.map(scc -> new BufferReporter());
+    var tycked = SCCs.map(scc -> MutableList.<LibrarySource>create());
+    var failed = new boolean[SCCs.size()];
+    var tasks = MutableMap.<LibrarySource, CompletableFuture<Void>>create();
+    var all = MutableList.<CompletableFuture<Void>>create();
+    var pool = new ForkJoinPool(flags.parallelism());
+    try {
+      for (int i = 0; i < SCCs.size(); i++) {
+        var index = i;
+        var scc = SCCs.get(i);
+        var deps = MutableList.<CompletableFuture<Void>>create();
+        scc.forEach(f -> f.imports().forEach(dep -> {
+          var task = tasks.getOrNull(dep);
+          if (task != null) deps.append(task);
+        }));
+        var task = CompletableFuture.allOf(deps.asJava().toArray(new CompletableFuture[0]))
+          .thenRunAsync(() -> failed[index] = tyckSCCConcurrently(scc, buffers.get(index), tycked.get(index), tycker), pool);
+        scc.forEach(f -> tasks.put(f, task));
+        all.append(task);
+      }
+      CompletableFuture.allOf(all.asJava().toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      var cause = e.getCause();
+      if (cause instanceof UncheckedIOException io) throw io.getCause();
+      if (cause instanceof RuntimeException runtime) throw runtime;
+      if (cause instanceof Error error) throw error;
+      throw e;
+    } finally {
+      pool.shutdown();
+      var listener = moduleLoader.loader.states().listener();
+      for (int i = 0; i < SCCs.size(); i++) {
+        buffers.get(i).problems().forEach(reporter::report);
+        tycked.get(i).forEach(listener::onTycked);
+        // consistent with LibrarySccTycker, which clears the reporter after a failure
+        if (failed[i]) reporter.clear();
+      }
+    }
+  }
+
+  /**
+   * @param tycked the tycked modules, whose problems are buffered
+   * @return whether the SCC failed
+   */
+  private boolean tyckSCCConcurrently(
+    @NotNull ImmutableSeq<LibrarySource> scc,
+    @NotNull BufferReporter buffer,
+    @NotNull MutableList<LibrarySource> tycked,
+    @NotNull LibraryOrgaTycker tycker
+  ) {
+    var counting = CountingReporter.delegate(buffer);
+    var base = moduleLoader.loader;
+    var loader = moduleLoader.derive(new LibraryModuleLoader(counting, base.owner(), base.states(), manifest));
+    var skipped = tycker.skippedSet();
+    ImmutableSeq<LibrarySource> todo;
+    synchronized (skipped) {
+      todo = scc.filterNot(skipped::contains);
+    }
+    if (todo.isEmpty()) return false;
+    ImmutableSeq<LibrarySource> failed;
+    try {
+      failed = new LibrarySccTycker(counting, loader, manifest, tycked::append).tyckSCC(todo);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    synchronized (skipped) {
+      tycker.skip(failed);
+    }
+    return failed.isNotEmpty();
+  }
+
   private @NotNull MutableGraph<LibrarySource> buildIncremental(@NotNull MutableGraph<LibrarySource> depGraph) {
     var usage = depGraph.transpose();
     var changed = MutableGraph.<LibrarySource>create();
     depGraph.E().keysView().forEach(s -> {
-      if (Timestamp.sourceModified(s))
+      if (manifest.sourceModified(s))
         collectChanged(usage, s, changed);
     });
     return changed;
@@ -205,13 +366,18 @@ public class LibraryCompiler {
 
   record LibrarySccTycker(
     @NotNull CountingReporter reporter,
-    @NotNull ModuleLoader moduleLoader
+    @NotNull ModuleLoader moduleLoader,
+    @NotNull BuildManifest manifest,
+    @NotNull ModuleListener listener
   ) implements SCCTycker<LibrarySource, IOException> {
     @Override
     public @NotNull ImmutableSeq<LibrarySource> tyckSCC(@NotNull ImmutableSeq<LibrarySource> order) throws IOException {
+      // Affected by a changed module, but neither the source nor any imported interface is changed
+      if (!order.anyMatch(manifest::needsRecheck)) return ImmutableSeq.empty();
       for (var f : order) Files.deleteIfExists(f.coreFile());
       for (var f : order) {
         tyckOne(f);
+        listener.onTycked(f);
         if (reporter.anyError()) {
           reporter.clear();
           return ImmutableSeq.of(f);
@@ -230,6 +396,11 @@ public class LibraryCompiler {
     }
   }
 
+  private void checkCanceled() {
+    var cancellation = moduleLoader.loader.states().cancellation();
+    if (cancellation != null) cancellation.checkCanceled();
+  }
+
   private void reportNest(@NotNull String text) {
     reporter.reportNest(text, LibraryOwner.DEFAULT_INDENT);
   }
@@ -3,28 +3,41 @@
 package org.aya.cli.library;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableSet;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.cli.utils.AyaCompiler;
+import org.aya.core.def.DataDef;
 import org.aya.core.def.Def;
 import org.aya.core.def.PrimDef;
+import org.aya.core.def.StructDef;
+import org.aya.core.serde.AyacArchive;
+import org.aya.core.serde.AyacFormat;
 import org.aya.core.serde.CompiledAya;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.generic.Constants;
+import org.aya.ref.DefVar;
 import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.context.EmptyContext;
 import org.aya.resolve.module.CachedModuleLoader;
 import org.aya.resolve.module.FileModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
 import org.aya.util.FileUtil;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This module loader is used to load source/compiled modules in a library.
@@ -45,18 +58,23 @@ import java.nio.file.Path;
 record LibraryModuleLoader(
   @NotNull CountingReporter reporter,
   @NotNull LibraryOwner owner,
-  @NotNull LibraryModuleLoader.United states
-  ) implements ModuleLoader {
+  @NotNull LibraryModuleLoader.United states,
+  @NotNull BuildManifest manifest
+) implements ModuleLoader {
   private void saveCompiledCore(@NotNull LibrarySource file, @NotNull ResolveInfo resolveInfo, @NotNull ImmutableSeq<Def> defs) {
     try {
       var coreFile = file.coreFile();
       AyaCompiler.saveCompiledCore(coreFile, resolveInfo, defs, states.ser);
-      Timestamp.update(file);
+      manifest.update(file, resolveInfo, defs);
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  @Override public @Nullable CancellationIndicator cancellation() {
+    return states.cancellation;
+  }
+
   @Override public @Nullable ResolveInfo
   load(@NotNull ImmutableSeq<@NotNull String> mod, @NotNull ModuleLoader recurseLoader) {
     var basePaths = owner.modulePath();
@@ -64,9 +82,19 @@ record LibraryModuleLoader(
     if (sourcePath == null) {
       // We are loading a module belonging to dependencies, find the compiled core.
       // The compiled core should always exist, otherwise the dependency is not built.
+      for (var basePath : basePaths) {
+        var archive = states.archive(basePath);
+        if (archive == null) continue;
+        var core = archive.bytes(mod);
+        if (core != null) return loadDependency(mod, core, basePath.resolve(AyacArchive.FILE_NAME), recurseLoader);
+      }
       var depCorePath = FileUtil.resolveFile(basePaths, mod, Constants.AYAC_POSTFIX);
       assert depCorePath != null : "dependencies not built?";
-      return loadCompiledCore(mod, depCorePath, depCorePath, recurseLoader);
+      try {
+        return loadDependency(mod, ByteBuffer.wrap(Files.readAllBytes(depCorePath)), depCorePath, recurseLoader);
+      } catch (IOException e) {
+        return null;
+      }
     }
 
     var source = owner.findModule(mod);
@@ -76,38 +104,187 @@ record LibraryModuleLoader(
     // If found, check modifications and decide whether to proceed with compiled core.
     var corePath = FileUtil.resolveFile(owner.outDir(), mod, Constants.AYAC_POSTFIX);
     if (Files.exists(corePath)) {
+      // Compiled from source in an earlier build of the same process (e.g. in the language server)
+      var tycked = source.tycked().value;
+      var resolveInfo = source.resolveInfo().value;
+      if (tycked != null && resolveInfo != null && importsUnchanged(resolveInfo, recurseLoader)) {
+        putTycked(tycked);
+        return resolveInfo;
+      }
+      source.tycked().value = null;
       return source.resolveInfo().value = loadCompiledCore(mod, corePath, sourcePath, recurseLoader);
     }
 
     // No compiled core is found, or source file is modified, compile it from source.
     var program = source.program().value;
     assert program != null;
+    var listener = states.listener;
     var context = new EmptyContext(reporter(), sourcePath).derive(mod);
+    var startTime = System.nanoTime();
     var resolveInfo = resolveModule(states.primFactory, context, program, recurseLoader);
     source.resolveInfo().value = resolveInfo;
+    var tyckTime = System.nanoTime();
+    listener.onPhase(source, LibraryCompiler.ModuleListener.Phase.RESOLVE, tyckTime - startTime);
     return tyckModule(null, resolveInfo, (moduleResolve, defs) -> {
+      var serializeTime = System.nanoTime();
+      listener.onPhase(source, LibraryCompiler.ModuleListener.Phase.TYCK, serializeTime - tyckTime);
       source.tycked().value = defs;
-      if (reporter().noError()) saveCompiledCore(source, moduleResolve, defs);
+      if (reporter().noError()) {
+        saveCompiledCore(source, moduleResolve, defs);
+        listener.onPhase(source, LibraryCompiler.ModuleListener.Phase.SERIALIZE, System.nanoTime() - serializeTime);
+      }
     });
   }
 
+  /**
+   * A module kept from an earlier build refers to the definitions of its imports in that build,
+   * so it is reused only if its imports are loaded to the same modules in this build.
+   */
+  private static boolean importsUnchanged(@NotNull ResolveInfo resolveInfo, @NotNull ModuleLoader recurseLoader) {
+    for (var name : resolveInfo.imports().keysView())
+      if (recurseLoader.load(name) != resolveInfo.imports().getOrNull(name)) return false;
+    return true;
+  }
+
+  /** Register the definitions of a reused module, used when deserializing the compiled cores depending on it. */
+  private void putTycked(@NotNull ImmutableSeq<Def> tycked) {
+    var defs = new HashMap<ImmutableSeq<String>, Map<String, DefVar<?, ?>>>();
+    for (var def : tycked) {
+      putDef(defs, def.ref());
+      if (def instanceof DataDef data) data.body.forEach(ctor -> putDef(defs, ctor.ref()));
+      else if (def instanceof StructDef struct) struct.fields.forEach(field -> putDef(defs, field.ref()));
+      else if (def instanceof PrimDef prim) states.primFactory.getOrCreate(prim.id, prim.ref);
+    }
+    defs.forEach(states.de::putModule);
+  }
+
+  private static void putDef(@NotNull Map<ImmutableSeq<String>, Map<String, DefVar<?, ?>>> defs, @NotNull DefVar<?, ?> ref) {
+    assert ref.module != null;
+    defs.computeIfAbsent(ref.module, m -> new HashMap<>()).put(ref.name(), ref);
+  }
+
   private @Nullable ResolveInfo loadCompiledCore(
     @NotNull ImmutableSeq<String> mod, @NotNull Path corePath,
     @NotNull Path sourcePath, @NotNull ModuleLoader recurseLoader
   ) {
-    assert recurseLoader instanceof CachedModuleLoader<?>;
-    var context = new EmptyContext(reporter(), sourcePath).derive(mod);
-    try (var inputStream = FileUtil.ois(corePath)) {
-      var compiledAya = (CompiledAya) inputStream.readObject();
-      return compiledAya.toResolveInfo(recurseLoader, context, states().de());
-    } catch (IOException | ClassNotFoundException e) {
+    try {
+      return loadCompiledCore(mod, AyacFormat.read(corePath), sourcePath, recurseLoader);
+    } catch (IOException e) {
       return null;
     }
   }
 
-  record United(@NotNull SerTerm.DeState de, @NotNull Serializer.State ser, @NotNull PrimDef.Factory primFactory) {
-    public United(@NotNull PrimDef.Factory primFactory) {
-      this(new SerTerm.DeState(primFactory), new Serializer.State(), primFactory);
+  /**
+   * Dependencies are shared with other compilations through the {@link DependencyCache}, if leased.
+   * A cached module is reused only if its imports are loaded to the same modules as when it was cached,
+   * otherwise it refers to the definitions of outdated imports, and is loaded again.
+   */
+  private @NotNull ResolveInfo loadDependency(
+    @NotNull ImmutableSeq<String> mod, @NotNull ByteBuffer core,
+    @NotNull Path corePath, @NotNull ModuleLoader recurseLoader
+  ) {
+    var lease = states.lease;
+    if (lease == null) return loadCompiledCore(mod, AyacFormat.read(core), corePath, recurseLoader);
+    var key = new DependencyCache.Key(new DependencyCache.Location(corePath, mod), BuildManifest.hash(core));
+    var cached = lease.get(key);
+    if (cached != null) {
+      var upToDate = true;
+      for (var name : cached.imports()) {
+        var imported = recurseLoader.load(name);
+        if (imported == null || imported != cached.resolveInfo().imports().getOrNull(name)) upToDate = false;
+      }
+      if (upToDate) {
+        cached.defs().forEach(states.de::putModule);
+        cached.prims().forEach(prim -> states.primFactory.getOrCreate(prim.id, prim.ref));
+        return cached.resolveInfo();
+      }
+    }
+    var compiledAya = AyacFormat.read(core);
+    // The module is deserialized by a state of its own, which its lazy bodies keep using in later builds,
+    // and which knows only the definitions of its imports, so the imports are loaded first
+    var imported = importedModules(compiledAya.imports(), recurseLoader);
+    var state = states.de.fork(m -> {
+      var name = m.toImmutableSeq();
+      for (var n = name.size(); n > 0; n--) if (imported.contains(name.take(n))) return true;
+      return false;
+    });
+    var context = new EmptyContext(reporter(), corePath).derive(mod);
+    var resolveInfo = compiledAya.toResolveInfo(recurseLoader, context, state);
+    var defs = new HashMap<ImmutableSeq<String>, Map<String, DefVar<?, ?>>>();
+    compiledAya.defModules().forEach(m -> defs.put(m, state.module(m)));
+    defs.forEach(states.de::putModule);
+    var prims = ImmutableSeq.from(defs.values()).view()
+      .flatMap(Map::values)
+      .mapNotNull(defVar -> defVar.core instanceof PrimDef prim ? prim : null)
+      .toImmutableSeq();
+    var module = new DependencyCache.Module(resolveInfo, compiledAya.imports(), Map.copyOf(defs), prims);
+    if (cached != null) lease.replace(key, cached, module);
+    else lease.put(key, module);
+    return resolveInfo;
+  }
+
+  /** @return the names of the modules loaded for the imports, and of the modules they import transitively */
+  private static @NotNull MutableSet<ImmutableSeq<String>>
+  importedModules(@NotNull ImmutableSeq<ImmutableSeq<String>> imports, @NotNull ModuleLoader recurseLoader) {
+    var modules = MutableSet.<ImmutableSeq<String>>create();
+    var queue = MutableList.<ResolveInfo>create();
+    for (var name : imports) {
+      var imported = recurseLoader.load(name);
+      if (imported != null) queue.append(imported);
+    }
+    for (int i = 0; i < queue.size(); i++) {
+      var info = queue.get(i);
+      var name = info.thisModule().moduleName();
+      if (modules.contains(name)) continue;
+      modules.add(name);
+      queue.appendAll(info.imports().valuesView());
+    }
+    return modules;
+  }
+
+  private @NotNull ResolveInfo loadCompiledCore(
+    @NotNull ImmutableSeq<String> mod, @NotNull CompiledAya compiledAya,
+    @NotNull Path sourcePath, @NotNull ModuleLoader recurseLoader
+  ) {
+    assert recurseLoader instanceof CachedModuleLoader<?>;
+    var context = new EmptyContext(reporter(), sourcePath).derive(mod);
+    return compiledAya.toResolveInfo(recurseLoader, context, states().de());
+  }
+
+  /**
+   * @param archives     opened archives of dependencies, keyed by their out dirs
+   * @param cancellation of the whole build, including dependencies
+   * @param listener     of the whole build, including dependencies
+   * @param lease        of the shared dependency cache, null if dependencies are loaded only for this build
+   */
+  record United(
+    @NotNull SerTerm.DeState de,
+    @NotNull Serializer.State ser,
+    @NotNull PrimDef.Factory primFactory,
+    @NotNull Map<Path, Optional<AyacArchive>> archives,
+    @Nullable CancellationIndicator cancellation,
+    @NotNull LibraryCompiler.ModuleListener listener,
+    @Nullable DependencyCache.Lease lease
+  ) {
+    public United(
+      @NotNull PrimDef.Factory primFactory, @Nullable CancellationIndicator cancellation,
+      @NotNull LibraryCompiler.ModuleListener listener, @Nullable DependencyCache.Lease lease
+    ) {
+      this(new SerTerm.DeState(primFactory, true), new Serializer.State(), primFactory, new ConcurrentHashMap<>(),
+        cancellation, listener, lease);
+    }
+
+    /** @return the archive packed in the directory, if any */
+    public @Nullable AyacArchive archive(@NotNull Path dir) {
+      return archives.computeIfAbsent(dir, d -> {
+        var path = d.resolve(AyacArchive.FILE_NAME);
+        if (!Files.exists(path)) return Optional.empty();
+        try {
+          return Optional.of(AyacArchive.open(path));
+        } catch (IOException e) {
+          return Optional.empty();
+        }
+      }).orElse(null);
     }
   }
 }
@@ -2,13 +2,19 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.cli.library.source;
 
+import kala.collection.Seq;
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
 import org.aya.cli.library.json.LibraryConfig;
 import org.aya.util.error.SourceFileLocator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
@@ -43,6 +49,35 @@ public interface LibraryOwner {
     return file;
   }
 
+  /**
+   * Forget the changed sources and the sources (transitively) importing them, and delete their compiled cores,
+   * so that only these sources are parsed and tycked again in the next incremental build.
+   *
+   * @return the forgotten sources
+   */
+  default @NotNull ImmutableSeq<LibrarySource> invalidate(@NotNull Seq<LibrarySource> changed) throws IOException {
+    var importers = MutableMap.<LibrarySource, MutableList<LibrarySource>>create();
+    librarySources().forEach(s -> s.imports().forEach(i -> importers.getOrPut(i, MutableList::create).append(s)));
+    var affected = MutableList.<LibrarySource>create();
+    var visited = MutableSet.<LibrarySource>create();
+    for (var source : changed) if (!visited.contains(source)) {
+      visited.add(source);
+      affected.append(source);
+    }
+    for (int i = 0; i < affected.size(); i++) {
+      var users = importers.getOrNull(affected.get(i));
+      if (users != null) for (var user : users) if (!visited.contains(user)) {
+        visited.add(user);
+        affected.append(user);
+      }
+    }
+    for (var source : affected) {
+      Files.deleteIfExists(source.coreFile());
+      source.forget();
+    }
+    return affected.toImmutableSeq();
+  }
+
   private @Nullable LibrarySource findModuleHere(@NotNull ImmutableSeq<String> mod) {
     return librarySources().find(s -> {
       var checkMod = s.moduleName();
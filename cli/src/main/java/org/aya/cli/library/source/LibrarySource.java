@@ -14,6 +14,8 @@ import org.aya.util.error.SourceFile;
 import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
 import java.util.stream.IntStream;
@@ -24,6 +26,7 @@ import java.util.stream.IntStream;
  * @param program     initialized after parse
  * @param resolveInfo initialized after resolve
  * @param tycked      initialized after tyck
+ * @param overlay     the unsaved content of the file in an editor, null if the file is read from disk
  */
 @Debug.Renderer(text = "file")
 public record LibrarySource(
@@ -32,10 +35,11 @@ public record LibrarySource(
   @NotNull MutableList<LibrarySource> imports,
   @NotNull Ref<ImmutableSeq<Stmt>> program,
   @NotNull Ref<ImmutableSeq<Def>> tycked,
-  @NotNull Ref<ResolveInfo> resolveInfo
+  @NotNull Ref<ResolveInfo> resolveInfo,
+  @NotNull Ref<String> overlay
 ) {
   public LibrarySource(@NotNull LibraryOwner owner, @NotNull Path file) {
-    this(owner, FileUtil.canonicalize(file), MutableList.create(), new Ref<>(), new Ref<>(), new Ref<>());
+    this(owner, FileUtil.canonicalize(file), MutableList.create(), new Ref<>(), new Ref<>(), new Ref<>(), new Ref<>());
   }
 
   public @NotNull ImmutableSeq<String> moduleName() {
@@ -55,6 +59,20 @@ public record LibrarySource(
     return new SourceFile(displayPath().toString(), file, sourceCode);
   }
 
+  /** @return the content of the editor buffer if the file is opened, or the content on disk */
+  public @NotNull String readCode() throws IOException {
+    var code = overlay.value;
+    return code != null ? code : Files.readString(file);
+  }
+
+  /** Forget the results of parsing, resolving and tycking, so that the file is compiled again. */
+  public void forget() {
+    imports.clear();
+    program.value = null;
+    tycked.value = null;
+    resolveInfo.value = null;
+  }
+
   public @NotNull Path coreFile() {
     var mod = moduleName();
     return FileUtil.resolveFile(owner.outDir(), mod, Constants.AYAC_POSTFIX);
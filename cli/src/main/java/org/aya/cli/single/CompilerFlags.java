@@ -15,8 +15,21 @@ public record CompilerFlags(
   boolean remake,
   @Nullable DistillInfo distillInfo,
   @NotNull SeqLike<Path> modulePaths,
-  @Nullable Path outputFile
+  @Nullable Path outputFile,
+  int parallelism,
+  boolean pack
 ) {
+  public CompilerFlags(
+    @NotNull Message message,
+    boolean interruptedTrace,
+    boolean remake,
+    @Nullable DistillInfo distillInfo,
+    @NotNull SeqLike<Path> modulePaths,
+    @Nullable Path outputFile
+  ) {
+    this(message, interruptedTrace, remake, distillInfo, modulePaths, outputFile, 1, false);
+  }
+
   public record DistillInfo(
     @NotNull MainArgs.DistillStage distillStage,
     @NotNull MainArgs.DistillFormat distillFormat,
@@ -6,6 +6,7 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.function.CheckedRunnable;
 import org.aya.cli.single.CompilerFlags;
 import org.aya.core.def.Def;
+import org.aya.core.serde.AyacFormat;
 import org.aya.core.serde.CompiledAya;
 import org.aya.core.serde.Serializer;
 import org.aya.generic.util.InternalException;
@@ -16,7 +17,6 @@ import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -53,13 +53,7 @@ public class AyaCompiler {
     @NotNull Serializer.State state
   ) throws IOException {
     var compiledAya = CompiledAya.from(resolveInfo, defs, state);
-    try (var outputStream = coreWriter(coreFile)) {
-      outputStream.writeObject(compiledAya);
-    }
-  }
-
-  private static @NotNull ObjectOutputStream coreWriter(@NotNull Path coreFile) throws IOException {
     Files.createDirectories(coreFile.toAbsolutePath().getParent());
-    return new ObjectOutputStream(Files.newOutputStream(coreFile));
+    Files.write(coreFile, AyacFormat.toBytes(compiledAya));
   }
 }
@@ -35,6 +35,10 @@ public class MainArgs {
     public String inputFile;
     @Option(names = {"-o", "--output"}, description = "Set output file")
     public String outputFile;
+    @Option(names = {"-j", "--jobs"}, description = "Number of modules to tyck in parallel when compiling libraries.", defaultValue = "1")
+    public int jobs;
+    @Option(names = {"--pack"}, description = "Pack compiled cores of the library into one archive.")
+    public boolean pack;
   }
 
   /** Either `repl` or `compile` is not null */
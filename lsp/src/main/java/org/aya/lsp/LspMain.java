@@ -36,6 +36,7 @@ public class LspMain extends LspArgs implements Callable<Integer> {
 
     var executor = Executors.newSingleThreadExecutor(f -> new Thread(f, "client"));
     var server = new AyaServer();
+    server.logStatsEvery(statsInterval);
     var launcher = Launcher.createLauncher(
       server,
       AyaLanguageClient.class,
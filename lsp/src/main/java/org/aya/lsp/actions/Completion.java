@@ -0,0 +1,87 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.actions;
+
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.Decl;
+import org.aya.core.def.*;
+import org.aya.lsp.utils.CompletionIndex;
+import org.aya.lsp.utils.Log;
+import org.aya.lsp.utils.LspRange;
+import org.aya.lsp.utils.ModuleVar;
+import org.aya.lsp.utils.XY;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.aya.ref.Var;
+import org.eclipse.lsp4j.CompletionItem;
+import org.eclipse.lsp4j.CompletionItemKind;
+import org.eclipse.lsp4j.CompletionList;
+import org.eclipse.lsp4j.Position;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+
+public interface Completion {
+  /** The list is marked incomplete when truncated, so that the client asks again as the user types */
+  int LIMIT = 200;
+
+  static @NotNull CompletionList invoke(
+    @NotNull CompletionIndex index,
+    @NotNull LibrarySource source,
+    @NotNull Position position
+  ) {
+    String code;
+    try {
+      code = source.readCode();
+    } catch (IOException e) {
+      Log.e("Cannot read %s: %s", source.file(), e.getMessage());
+      return new CompletionList(Collections.emptyList());
+    }
+    var offset = LspRange.toOffset(code, position);
+    var start = offset;
+    while (start > 0 && isNamePart(code.charAt(start - 1))) start--;
+    var candidates = index.complete(source, new XY(position), code.substring(start, offset), LIMIT);
+    var items = candidates.view().map(candidate -> {
+      var item = new CompletionItem(candidate.label());
+      item.setKind(kind(candidate.var()));
+      item.setDetail(candidate.detail());
+      return item;
+    }).stream().toList();
+    return new CompletionList(candidates.size() >= LIMIT, items);
+  }
+
+  /** Names consist of anything but whitespaces and delimiters, see the lexer */
+  private static boolean isNamePart(char c) {
+    return !Character.isWhitespace(c) && "()[]{},.|\\\"".indexOf(c) < 0;
+  }
+
+  private static @NotNull CompletionItemKind kind(@Nullable Var var) {
+    return switch (var) {
+      case null -> CompletionItemKind.Keyword;
+      case LocalVar local -> CompletionItemKind.Variable;
+      case ModuleVar module -> CompletionItemKind.Module;
+      case DefVar<?, ?> defVar -> defKind(defVar.core != null ? defVar.core : defVar.concrete);
+      default -> CompletionItemKind.Reference;
+    };
+  }
+
+  private static @NotNull CompletionItemKind defKind(@Nullable Object def) {
+    return switch (def) {
+      case FnDef fn -> CompletionItemKind.Function;
+      case Decl.FnDecl fn -> CompletionItemKind.Function;
+      case PrimDef prim -> CompletionItemKind.Function;
+      case Decl.PrimDecl prim -> CompletionItemKind.Function;
+      case DataDef data -> CompletionItemKind.Enum;
+      case Decl.DataDecl data -> CompletionItemKind.Enum;
+      case CtorDef ctor -> CompletionItemKind.EnumMember;
+      case Decl.DataCtor ctor -> CompletionItemKind.EnumMember;
+      case StructDef struct -> CompletionItemKind.Struct;
+      case Decl.StructDecl struct -> CompletionItemKind.Struct;
+      case FieldDef field -> CompletionItemKind.Field;
+      case Decl.StructField field -> CompletionItemKind.Field;
+      case null, default -> CompletionItemKind.Reference;
+    };
+  }
+}
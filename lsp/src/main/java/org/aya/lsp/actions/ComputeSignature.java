@@ -9,6 +9,7 @@ import org.aya.core.term.Term;
 import org.aya.distill.BaseDistiller;
 import org.aya.distill.CoreDistiller;
 import org.aya.lsp.utils.Resolver;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.pretty.doc.Doc;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
@@ -19,10 +20,11 @@ import org.jetbrains.annotations.NotNull;
 
 public interface ComputeSignature {
   static @NotNull Doc invokeHover(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position
   ) {
-    var target = Resolver.resolveVar(source, position).firstOrNull();
+    var target = Resolver.resolveVar(index, source, position).firstOrNull();
     if (target == null) return Doc.empty();
     return computeSignature(target.data(), true);
   }
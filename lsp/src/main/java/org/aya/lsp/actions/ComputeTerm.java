@@ -2,24 +2,22 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp.actions;
 
-import kala.tuple.Unit;
 import org.aya.cli.library.source.LibrarySource;
-import org.aya.concrete.Expr;
 import org.aya.core.def.PrimDef;
 import org.aya.core.term.Term;
 import org.aya.generic.util.NormalizeMode;
 import org.aya.lsp.models.ComputeTermResult;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.lsp.utils.XY;
 import org.aya.tyck.ExprTycker;
 import org.aya.tyck.TyckState;
 import org.aya.util.error.WithPos;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.function.Function;
 
-public final class ComputeTerm implements SyntaxNodeAction {
-  private @Nullable WithPos<Term> result = null;
+public final class ComputeTerm {
+  private final @NotNull SymbolIndex index;
   private final @NotNull LibrarySource source;
   private final @NotNull Kind kind;
 
@@ -36,38 +34,26 @@ public final class ComputeTerm implements SyntaxNodeAction {
       return new Kind(primFactory, term -> term.wellTyped().normalize(new TyckState(primFactory), NormalizeMode.NF));
     }
 
+    public static @NotNull Kind nbe(@NotNull PrimDef.Factory primFactory) {
+      return new Kind(primFactory, term -> term.wellTyped().normalize(new TyckState(primFactory), NormalizeMode.NBE));
+    }
+
     public static @NotNull Kind whnf(@NotNull PrimDef.Factory primFactory) {
       return new Kind(primFactory, term -> term.wellTyped().normalize(new TyckState(primFactory), NormalizeMode.WHNF));
     }
   }
 
-  public ComputeTerm(@NotNull LibrarySource source, @NotNull Kind kind) {
+  public ComputeTerm(@NotNull SymbolIndex index, @NotNull LibrarySource source, @NotNull Kind kind) {
+    this.index = index;
     this.source = source;
     this.kind = kind;
   }
 
   public @NotNull ComputeTermResult invoke(ComputeTermResult.Params params) {
-    var program = source.program().value;
-    if (program == null) return ComputeTermResult.bad(params);
-    visitAll(program, new XY(params.position));
-    return result == null ? ComputeTermResult.bad(params) : ComputeTermResult.good(params, result);
-  }
-
-  @Override public @NotNull Unit visitRef(@NotNull Expr.RefExpr expr, XY xy) {
-    check(xy, expr);
-    return Unit.unit();
-  }
-
-  @Override public @NotNull Unit visitProj(@NotNull Expr.ProjExpr expr, XY xy) {
-    check(xy, expr);
-    return SyntaxNodeAction.super.visitProj(expr, xy);
-  }
-
-  private <T extends Expr.WithTerm> void check(@NotNull XY xy, @NotNull T cored) {
-    var sourcePos = cored.sourcePos();
-    if (xy.inside(sourcePos)) {
-      var core = cored.core();
-      if (core != null) result = new WithPos<>(sourcePos, kind.map.apply(core));
-    }
+    // the innermost term which is tycked
+    var cored = index.termsAt(source, new XY(params.position)).filter(term -> term.data().core() != null);
+    if (cored.isEmpty()) return ComputeTermResult.bad(params);
+    var term = cored.last();
+    return ComputeTermResult.good(params, new WithPos<>(term.sourcePos(), kind.map.apply(term.data().core())));
   }
 }
@@ -7,7 +7,7 @@ import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.lsp.utils.LspRange;
 import org.aya.lsp.utils.Resolver;
-import org.aya.ref.Var;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.Location;
@@ -19,41 +19,34 @@ import java.util.stream.Collectors;
 
 public interface FindReferences {
   static @NotNull List<Location> invoke(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    return findRefs(source, position, libraries)
+    return findRefs(index, source, position, libraries)
       .map(LspRange::toLoc)
       .collect(Collectors.toList());
   }
 
   static @NotNull SeqView<SourcePos> findRefs(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    var vars = Resolver.resolveVar(source, position);
-    var resolver = new Resolver.UsageResolver();
-    vars.forEach(var -> libraries.forEach(lib -> resolve(resolver, lib, var.data())));
-    return resolver.refs.view();
+    var vars = Resolver.resolveVar(index, source, position);
+    return vars.flatMap(var -> index.usages(libraries, var.data())).toImmutableSeq().view();
   }
 
   static @NotNull SeqView<SourcePos> findOccurrences(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    var defs = GotoDefinition.findDefs(source, position, libraries).map(WithPos::data);
-    var refs = FindReferences.findRefs(source, position, libraries);
+    var defs = GotoDefinition.findDefs(index, source, position, libraries).map(WithPos::data);
+    var refs = FindReferences.findRefs(index, source, position, libraries);
     return defs.concat(refs);
   }
-
-  private static void resolve(@NotNull Resolver.UsageResolver resolver, @NotNull LibraryOwner owner, @NotNull Var var) {
-    owner.librarySources().forEach(src -> {
-      var program = src.program().value;
-      if (program != null) resolver.visitAll(program, var);
-    });
-    owner.libraryDeps().forEach(dep -> resolve(resolver, dep, var));
-  }
 }
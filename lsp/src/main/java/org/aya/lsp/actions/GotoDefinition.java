@@ -9,6 +9,7 @@ import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
 import org.aya.lsp.utils.ModuleVar;
 import org.aya.lsp.utils.Resolver;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
 import org.aya.util.error.SourcePos;
@@ -26,11 +27,12 @@ import java.util.stream.Collectors;
  */
 public interface GotoDefinition {
   static @NotNull List<LocationLink> invoke(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    return findDefs(source, position, libraries).mapNotNull(pos -> {
+    return findDefs(index, source, position, libraries).mapNotNull(pos -> {
       var from = pos.sourcePos();
       var to = pos.data();
       var res = LspRange.toLoc(from, to);
@@ -40,11 +42,12 @@ public interface GotoDefinition {
   }
 
   static @NotNull SeqView<WithPos<SourcePos>> findDefs(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    return Resolver.resolveVar(source, position).mapNotNull(pos -> {
+    return Resolver.resolveVar(index, source, position).mapNotNull(pos -> {
       var from = pos.sourcePos();
       var target = switch (pos.data()) {
         case DefVar<?, ?> defVar -> defVar.concrete.sourcePos();
@@ -8,6 +8,7 @@ import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.lsp.utils.LspRange;
 import org.aya.lsp.utils.Resolver;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.ref.Var;
 import org.aya.util.error.WithPos;
 import org.eclipse.lsp4j.Position;
@@ -20,19 +21,24 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 public interface Rename {
-  static @Nullable WithPos<String> prepare(@NotNull LibrarySource source, @NotNull Position position) {
-    var vars = Resolver.resolveVar(source, position);
+  static @Nullable WithPos<String> prepare(
+    @NotNull SymbolIndex index,
+    @NotNull LibrarySource source,
+    @NotNull Position position
+  ) {
+    var vars = Resolver.resolveVar(index, source, position);
     if (vars.isEmpty()) return null;
     return vars.first().map(Var::name);
   }
 
   static Map<String, List<TextEdit>> rename(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position,
     @NotNull String newName,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    return FindReferences.findOccurrences(source, position, libraries)
+    return FindReferences.findOccurrences(index, source, position, libraries)
       .flatMap(to -> {
         var edit = new TextEdit(LspRange.toRange(to), newName);
         return to.file().underlying().map(uri -> Tuple.of(uri, edit));
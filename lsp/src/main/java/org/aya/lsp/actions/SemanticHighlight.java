@@ -0,0 +1,114 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.actions;
+
+import org.aya.lsp.models.HighlightResult;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SemanticTokenModifiers;
+import org.eclipse.lsp4j.SemanticTokenTypes;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Encodes the symbols found by {@link SyntaxHighlight} as semantic tokens,
+ * which are five integers per token relative to the previous one,
+ * see the specification of {@code textDocument/semanticTokens}.
+ */
+public interface SemanticHighlight {
+  /** Indexed by the token types in {@link #encode} */
+  @NotNull List<String> TOKEN_TYPES = List.of(
+    SemanticTokenTypes.Namespace,
+    SemanticTokenTypes.Function,
+    SemanticTokenTypes.Type,
+    SemanticTokenTypes.Struct,
+    SemanticTokenTypes.EnumMember,
+    SemanticTokenTypes.Property,
+    SemanticTokenTypes.Variable);
+  /** Indexed by the bits of token modifiers in {@link #encode} */
+  @NotNull List<String> TOKEN_MODIFIERS = List.of(
+    SemanticTokenModifiers.Declaration,
+    SemanticTokenModifiers.DefaultLibrary);
+
+  static @NotNull SemanticTokensLegend legend() {
+    return new SemanticTokensLegend(TOKEN_TYPES, TOKEN_MODIFIERS);
+  }
+
+  private static int tokenType(@NotNull HighlightResult.Symbol.Kind kind) {
+    return switch (kind) {
+      case ModuleDef -> 0;
+      case FnDef, FnCall, PrimDef, PrimCall -> 1;
+      case DataDef, DataCall -> 2;
+      case StructDef, StructCall -> 3;
+      case ConDef, ConCall -> 4;
+      case FieldDef, FieldCall -> 5;
+      case Generalize -> 6;
+    };
+  }
+
+  private static int tokenModifiers(@NotNull HighlightResult.Symbol.Kind kind) {
+    return switch (kind) {
+      case ModuleDef, FnDef, DataDef, StructDef, ConDef, FieldDef -> 1;
+      case PrimDef -> 1 | 2;
+      case PrimCall -> 2;
+      default -> 0;
+    };
+  }
+
+  /**
+   * @param range only the tokens intersecting the range are encoded if not null
+   * @return the tokens sorted by their positions and encoded,
+   * where tokens spanning multiple lines are dropped since we do not ask for the client capability
+   */
+  static @NotNull List<Integer> encode(@NotNull HighlightResult highlight, @Nullable Range range) {
+    var symbols = highlight.symbols().stream()
+      .filter(symbol -> symbol.range().getStart().getLine() == symbol.range().getEnd().getLine())
+      .filter(symbol -> range == null || intersects(symbol.range(), range))
+      .sorted(Comparator.comparing((HighlightResult.Symbol symbol) -> symbol.range().getStart().getLine())
+        .thenComparing(symbol -> symbol.range().getStart().getCharacter()))
+      .toList();
+    var data = new ArrayList<Integer>(symbols.size() * 5);
+    var line = 0;
+    var character = 0;
+    for (var symbol : symbols) {
+      var start = symbol.range().getStart();
+      var deltaLine = start.getLine() - line;
+      data.add(deltaLine);
+      data.add(deltaLine == 0 ? start.getCharacter() - character : start.getCharacter());
+      data.add(symbol.range().getEnd().getCharacter() - start.getCharacter());
+      data.add(tokenType(symbol.kind()));
+      data.add(tokenModifiers(symbol.kind()));
+      line = start.getLine();
+      character = start.getCharacter();
+    }
+    return data;
+  }
+
+  private static boolean intersects(@NotNull Range symbol, @NotNull Range range) {
+    return !before(symbol.getEnd().getLine(), symbol.getEnd().getCharacter(),
+      range.getStart().getLine(), range.getStart().getCharacter())
+      && !before(range.getEnd().getLine(), range.getEnd().getCharacter(),
+      symbol.getStart().getLine(), symbol.getStart().getCharacter());
+  }
+
+  private static boolean before(int line, int character, int otherLine, int otherCharacter) {
+    return line < otherLine || line == otherLine && character <= otherCharacter;
+  }
+
+  /** @return a single edit replacing the part between the common prefix and the common suffix */
+  static @NotNull SemanticTokensEdit diff(@NotNull List<Integer> previous, @NotNull List<Integer> current) {
+    var prefix = 0;
+    var max = Math.min(previous.size(), current.size());
+    while (prefix < max && previous.get(prefix).equals(current.get(prefix))) prefix++;
+    var suffix = 0;
+    while (suffix < max - prefix
+      && previous.get(previous.size() - 1 - suffix).equals(current.get(current.size() - 1 - suffix))) suffix++;
+    var inserted = List.copyOf(current.subList(prefix, current.size() - suffix));
+    return new SemanticTokensEdit(prefix, previous.size() - prefix - suffix, inserted);
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.library;
+
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.util.cancel.CancellationIndicator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Schedules compilations of libraries in the workspace.
+ * A newly submitted compilation of a library cancels the pending and the running ones of the same library,
+ * and starts only after the running one stops, so that a library is never compiled twice at the same time.
+ */
+public final class CompileScheduler {
+  /** Wait for more changes before compiling, since every keystroke triggers a compilation */
+  public static final long DEBOUNCE_MILLIS = 200;
+
+  private static final class Job implements CancellationIndicator {
+    private volatile boolean canceled = false;
+
+    @Override public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override public void cancel() {
+      canceled = true;
+    }
+  }
+
+  /** Libraries are identified by identity, since their sources are mutable */
+  private final @NotNull Map<LibraryOwner, Job> latest = new IdentityHashMap<>();
+  private final @NotNull Map<LibraryOwner, CompletableFuture<?>> running = new IdentityHashMap<>();
+  /** Compilations submitted but not finished */
+  private int pending = 0;
+
+  /**
+   * @param delay   in milliseconds, during which the compilation may be superseded by a newer one
+   * @param compile polls the indicator given to it
+   * @return completed exceptionally with {@link org.aya.util.cancel.CancellationException} if superseded
+   */
+  public synchronized <T> @NotNull CompletableFuture<T> submit(
+    @NotNull LibraryOwner owner, long delay,
+    @NotNull Function<@NotNull CancellationIndicator, T> compile
+  ) {
+    var previous = latest.get(owner);
+    if (previous != null) previous.cancel();
+    var job = new Job();
+    latest.put(owner, job);
+    pending++;
+    var last = running.getOrDefault(owner, CompletableFuture.completedFuture(null));
+    var debounced = CompletableFuture.runAsync(() -> {
+    }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    var result = CompletableFuture.allOf(last.handle((r, e) -> null), debounced).thenApplyAsync(ignored -> {
+      job.checkCanceled();
+      return compile.apply(job);
+    });
+    running.put(owner, result);
+    result.whenComplete((r, e) -> finish(owner, job));
+    return result;
+  }
+
+  private synchronized void finish(@NotNull LibraryOwner owner, @NotNull Job job) {
+    pending--;
+    if (latest.get(owner) != job) return;
+    latest.remove(owner);
+    running.remove(owner);
+  }
+
+  /** @return the number of compilations submitted but not finished, including the running ones */
+  public synchronized int pending() {
+    return pending;
+  }
+
+  /** Cancel all compilations, for example when the server is shut down. */
+  public synchronized void cancelAll() {
+    latest.values().forEach(Job::cancel);
+  }
+}
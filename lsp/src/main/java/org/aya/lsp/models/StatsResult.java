@@ -0,0 +1,43 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.models;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response of {@code aya/stats}, the last compilations from the oldest to the latest.
+ */
+public record StatsResult(@NotNull List<Compile> compiles) {
+  /**
+   * @param outcome    done, canceled or failed, null if still running
+   * @param queueDepth other compilations submitted but not finished when this one started
+   * @param heapUsed   in bytes, after the compilation
+   */
+  public record Compile(
+    @NotNull String library,
+    long startedAt,
+    double millis,
+    String outcome,
+    int queueDepth,
+    @NotNull CacheRate normalize,
+    @NotNull CacheRate dependencies,
+    long heapUsed,
+    long heapMax,
+    @NotNull List<Module> modules
+  ) {
+  }
+
+  public record CacheRate(long hits, long misses, double hitRate) {
+    public static @NotNull CacheRate of(long hits, long misses) {
+      var total = hits + misses;
+      return new CacheRate(hits, misses, total == 0 ? 0 : (double) hits / total);
+    }
+  }
+
+  /** @param millis time spent in each phase */
+  public record Module(@NotNull String uri, @NotNull Map<String, Double> millis) {
+  }
+}
@@ -3,8 +3,10 @@
 package org.aya.lsp.server;
 
 import org.aya.lsp.actions.ComputeTerm;
+import org.aya.lsp.actions.SemanticHighlight;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.models.HighlightResult;
+import org.aya.lsp.models.StatsResult;
 import org.aya.lsp.utils.Log;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
@@ -17,6 +19,7 @@ import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class AyaServer implements LanguageClientAware, LanguageServer {
   private final AyaService service = new AyaService();
@@ -24,7 +27,7 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
   @JsonRequest("aya/load")
   public @NotNull CompletableFuture<@NotNull List<HighlightResult>> load(Object uri) {
     var uriString = (String) uri; // see JavaDoc of JsonRequest
-    return CompletableFuture.supplyAsync(() -> service.loadFile(uriString));
+    return CompletableFuture.supplyAsync(() -> service.loadFile(uriString)).thenCompose(Function.identity());
   }
 
   @JsonRequest("aya/computeType")
@@ -37,6 +40,21 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
     return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.nf(service.sharedPrimFactory)));
   }
 
+  @JsonRequest("aya/computeNBE")
+  public @NotNull CompletableFuture<@NotNull ComputeTermResult> computeNBE(ComputeTermResult.Params input) {
+    return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.nbe(service.sharedPrimFactory)));
+  }
+
+  @JsonRequest("aya/stats")
+  public @NotNull CompletableFuture<@NotNull StatsResult> stats() {
+    return CompletableFuture.supplyAsync(service::stats);
+  }
+
+  /** @param seconds between the summaries of the last compilations, disabled if not positive */
+  public void logStatsEvery(long seconds) {
+    if (seconds > 0) service.logStatsEvery(seconds);
+  }
+
   @Override public void connect(@NotNull LanguageClient client) {
     Log.init(((AyaLanguageClient) client));
   }
@@ -44,7 +62,7 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
   @Override public @NotNull CompletableFuture<InitializeResult> initialize(InitializeParams params) {
     return CompletableFuture.supplyAsync(() -> {
       var cap = new ServerCapabilities();
-      cap.setTextDocumentSync(TextDocumentSyncKind.None);
+      cap.setTextDocumentSync(TextDocumentSyncKind.Incremental);
       cap.setCompletionProvider(new CompletionOptions(true, Collections.singletonList(
         "QWERTYUIOPASDFGHJKLZXCVBNM.qwertyuiopasdfghjklzxcvbnm+-*/_[]:")));
       cap.setDefinitionProvider(Either.forLeft(true));
@@ -58,6 +76,10 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
       cap.setReferencesProvider(true);
       cap.setRenameProvider(new RenameOptions(true));
       cap.setDocumentHighlightProvider(true);
+      var semanticTokens = new SemanticTokensWithRegistrationOptions(SemanticHighlight.legend());
+      semanticTokens.setFull(Either.forRight(new SemanticTokensServerFull(true)));
+      semanticTokens.setRange(Either.forLeft(true));
+      cap.setSemanticTokensProvider(semanticTokens);
 
       var folders = params.getWorkspaceFolders();
       // In case we open a single file, this value will be null, so be careful.
@@ -70,6 +92,7 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
   }
 
   @Override public @NotNull CompletableFuture<Object> shutdown() {
+    service.shutdown();
     return CompletableFuture.completedFuture(null);
   }
 
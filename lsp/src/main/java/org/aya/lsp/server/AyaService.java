@@ -2,11 +2,11 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.lsp.server;
 
-import kala.collection.Seq;
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
 import kala.control.Option;
-import kala.tuple.Tuple;
+import org.aya.cli.library.DependencyCache;
 import org.aya.cli.library.LibraryCompiler;
 import org.aya.cli.library.json.LibraryConfigData;
 import org.aya.cli.library.source.DiskLibraryOwner;
@@ -17,18 +17,22 @@ import org.aya.cli.single.CompilerFlags;
 import org.aya.core.def.PrimDef;
 import org.aya.generic.Constants;
 import org.aya.lsp.actions.*;
+import org.aya.lsp.library.CompileScheduler;
 import org.aya.lsp.library.WsLibrary;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.models.HighlightResult;
+import org.aya.lsp.models.StatsResult;
+import org.aya.lsp.utils.CompileStats;
+import org.aya.lsp.utils.CompletionIndex;
+import org.aya.lsp.utils.Diagnostics;
+import org.aya.lsp.utils.HighlightCache;
 import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
-import org.aya.pretty.doc.Doc;
+import org.aya.lsp.utils.SymbolIndex;
 import org.aya.util.FileUtil;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
 import org.aya.util.distill.DistillerOptions;
-import org.aya.util.error.SourcePos;
-import org.aya.util.error.WithPos;
-import org.aya.util.reporter.BufferReporter;
-import org.aya.util.reporter.Problem;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.TextDocumentService;
@@ -44,13 +48,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletionException;
 
 public class AyaService implements WorkspaceService, TextDocumentService {
-  private final BufferReporter reporter = new BufferReporter();
+  private final @NotNull CompileStats stats = new CompileStats();
+  private final @NotNull Diagnostics diagnostics = new Diagnostics(DistillerOptions.pretty(), stats);
   private final @NotNull MutableList<LibraryOwner> libraries = MutableList.create();
   /**
    * When working with LSP, we need to track all previously created Primitives.
@@ -58,7 +62,16 @@ public class AyaService implements WorkspaceService, TextDocumentService {
    * @implNote consider using one shared factory among all mocked libraries, and separate factory for each real library.
    */
   protected final @NotNull PrimDef.Factory sharedPrimFactory = new PrimDef.Factory();
-  private @NotNull Set<Path> lastErrorReportedFiles = Collections.emptySet();
+  /** Libraries compiled from scratch once, later changes to them are compiled incrementally */
+  private final @NotNull MutableList<LibraryOwner> builtLibraries = MutableList.create();
+  /** Sources changed since the last compilation of their libraries started */
+  private final @NotNull MutableList<LibrarySource> changedSources = MutableList.create();
+  private final @NotNull CompileScheduler scheduler = new CompileScheduler();
+  private final @NotNull SymbolIndex symbolIndex = new SymbolIndex();
+  private final @NotNull HighlightCache highlightCache = new HighlightCache(stats);
+  private final @NotNull CompletionIndex completionIndex = new CompletionIndex();
+  /** Dependencies loaded from compiled cores, shared with other workspaces in the process */
+  private final @NotNull DependencyCache.Lease dependencies = DependencyCache.SHARED.lease();
 
   public void registerLibrary(@NotNull Path path) {
     Log.i("Adding library path %s", path);
@@ -122,7 +135,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return FileUtil.canonicalize(Path.of(URI.create(uri)));
   }
 
-  public @NotNull List<HighlightResult> loadFile(@NotNull String uri) {
+  public @NotNull CompletableFuture<List<HighlightResult>> loadFile(@NotNull String uri) {
     Log.d("Loading vscode uri: %s", uri);
     var path = FileUtil.canonicalize(Path.of(URI.create(uri)));
     if (libraries.isEmpty()) registerLibrary(path.getParent());
@@ -130,93 +143,109 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     var source = find(path);
     if (source == null) {
       Log.w("Cannot find source");
-      return Collections.emptyList();
+      return CompletableFuture.completedFuture(Collections.emptyList());
     }
     var owner = source.owner();
     Log.d("Found source file (%s) in library %s (root: %s): ", source.file(),
       owner.underlyingLibrary().name(), owner.underlyingLibrary().libraryRoot());
 
-    // start compiling
-    reporter.clear();
+    return scheduler.submit(owner, 0, cancellation -> {
+      compile(owner, cancellation);
+      return highlightCache.changed(owner, source).stream().toList();
+    }).exceptionally(e -> {
+      // reported as a canceled request
+      if (e.getCause() instanceof CancellationException)
+        throw new java.util.concurrent.CancellationException("Superseded by another compilation");
+      throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+    });
+  }
+
+  /**
+   * Compilations of different libraries are serialized as well, since they share the reporter and the primitives.
+   * The library is compiled from scratch in the first build only,
+   * later only the changed sources and the sources depending on them are compiled.
+   */
+  private synchronized void compile(@NotNull LibraryOwner owner, @NotNull CancellationIndicator cancellation) {
+    ImmutableSeq<LibrarySource> changed;
+    synchronized (changedSources) {
+      changed = changedSources.view().filter(src -> src.owner() == owner).toImmutableSeq();
+      changedSources.removeAll(src -> src.owner() == owner);
+    }
+    if (changed.isNotEmpty()) try {
+      var invalidated = owner.invalidate(changed);
+      Log.d("Invalidated %d source(s) affected by %d changed source(s)", invalidated.size(), changed.size());
+    } catch (IOException e) {
+      Log.e("Cannot invalidate sources of %s: %s", owner.underlyingLibrary().name(), e.getMessage());
+    }
+    var built = builtLibraries.anyMatch(lib -> lib == owner);
+    diagnostics.clear();
     var flags = new CompilerFlags(
-      CompilerFlags.Message.EMOJI, false, true, null,
+      CompilerFlags.Message.EMOJI, false, !built, null,
       SeqView.empty(), null);
+    // the running compilation is not queued
+    var compile = stats.start(owner.underlyingLibrary().name(), scheduler.pending() - 1);
+    var listener = new LibraryCompiler.ModuleListener() {
+      @Override public void onTycked(@NotNull LibrarySource source) {
+        diagnostics.publish(source.file());
+      }
+
+      @Override public void onPhase(@NotNull LibrarySource source, @NotNull Phase phase, long nanos) {
+        compile.record(source.file(), phase.name().toLowerCase(Locale.ROOT), nanos);
+      }
+    };
+    var outcome = "failed";
     try {
-      LibraryCompiler.newCompiler(sharedPrimFactory, reporter, flags, owner).start();
+      LibraryCompiler.newCompiler(sharedPrimFactory, diagnostics, flags, owner, cancellation, listener, dependencies).start();
+      if (!built) builtLibraries.append(owner);
+      outcome = "done";
+    } catch (CancellationException e) {
+      Log.d("Compilation of %s is canceled", owner.underlyingLibrary().name());
+      outcome = "canceled";
+      throw e;
     } catch (IOException e) {
       var s = new StringWriter();
       e.printStackTrace(new PrintWriter(s));
       Log.e("IOException occurred when running the compiler. Stack trace:\n%s", s.toString());
     } finally {
       sharedPrimFactory.clear();
+      compile.finish(outcome);
     }
-    reportErrors(reporter, DistillerOptions.pretty());
-    // build highlight
-    var symbols = MutableList.<HighlightResult>create();
-    highlight(owner, symbols);
-    return symbols.asJava();
-  }
-
-  private void highlight(@NotNull LibraryOwner owner, @NotNull MutableList<HighlightResult> result) {
-    owner.librarySources().forEach(src -> result.append(highlightOne(src)));
-    for (var dep : owner.libraryDeps()) highlight(dep, result);
-  }
-
-  private @NotNull HighlightResult highlightOne(@NotNull LibrarySource source) {
-    var symbols = MutableList.<HighlightResult.Symbol>create();
-    var program = source.program().value;
-    if (program != null) program.forEach(d -> d.accept(SyntaxHighlight.INSTANCE, symbols));
-    return new HighlightResult(source.file().toUri().toString(), symbols.view().filter(t -> t.range() != LspRange.NONE));
-  }
-
-  public void reportErrors(@NotNull BufferReporter reporter, @NotNull DistillerOptions options) {
-    lastErrorReportedFiles.forEach(f ->
-      Log.publishProblems(new PublishDiagnosticsParams(f.toUri().toString(), Collections.emptyList())));
-    var diags = reporter.problems().stream()
-      .filter(p -> p.sourcePos().belongsToSomeFile())
-      .peek(p -> Log.d("%s", p.describe(options).debugRender()))
-      .flatMap(p -> Stream.concat(Stream.of(p), p.inlineHints(options).stream().map(t -> new InlineHintProblem(p, t))))
-      .flatMap(p -> p.sourcePos().file().underlying().stream().map(uri -> Tuple.of(uri, p)))
-      .collect(Collectors.groupingBy(
-        t -> t._1,
-        Collectors.mapping(t -> t._2, Seq.factory())
-      ));
-
-    for (var diag : diags.entrySet()) {
-      var filePath = diag.getKey();
-      Log.d("Found %d issues in %s", diag.getValue().size(), filePath);
-      var problems = diag.getValue()
-        .collect(Collectors.groupingBy(Problem::sourcePos, Seq.factory()))
-        .entrySet().stream()
-        .map(kv -> toDiagnostic(kv.getKey(), kv.getValue(), options))
-        .collect(Collectors.toList());
-      Log.publishProblems(new PublishDiagnosticsParams(
-        filePath.toUri().toString(),
-        problems
-      ));
-    }
-    lastErrorReportedFiles = diags.keySet();
+    symbolIndex.update(owner);
+    completionIndex.update(owner);
+    diagnostics.publishRemaining();
   }
 
-  private @NotNull Diagnostic toDiagnostic(@NotNull SourcePos sourcePos, @NotNull Seq<Problem> problems, @NotNull DistillerOptions options) {
-    var msgBuilder = new StringBuilder();
-    var severity = DiagnosticSeverity.Hint;
-    for (var p : problems) {
-      msgBuilder.append(p.brief(options).debugRender()).append('\n');
-      var ps = severityOf(p);
-      if (ps.getValue() < severity.getValue()) severity = ps;
-    }
-    return new Diagnostic(LspRange.toRange(sourcePos),
-      msgBuilder.toString(), severity, "Aya");
+  public void shutdown() {
+    scheduler.cancelAll();
+    diagnostics.shutdown();
+    stats.shutdown();
+    dependencies.close();
   }
 
-  private DiagnosticSeverity severityOf(@NotNull Problem problem) {
-    return switch (problem.level()) {
-      case WARN -> DiagnosticSeverity.Warning;
-      case ERROR -> DiagnosticSeverity.Error;
-      case INFO -> DiagnosticSeverity.Information;
-      case GOAL -> DiagnosticSeverity.Hint;
-    };
+  public @NotNull StatsResult stats() {
+    return stats.result();
+  }
+
+  /** Log the timings of each compilation, and a summary of the last ones periodically. */
+  public void logStatsEvery(long seconds) {
+    stats.logEvery(seconds);
+  }
+
+  /** Recompile the library of the changed source in the background, after the changes settle down. */
+  private void recompile(@NotNull LibrarySource changed) {
+    markChanged(changed);
+    var owner = changed.owner();
+    scheduler.submit(owner, CompileScheduler.DEBOUNCE_MILLIS, cancellation -> {
+      compile(owner, cancellation);
+      return null;
+    });
+  }
+
+  /** The source and the sources depending on it are forgotten before the next compilation of its library. */
+  private void markChanged(@NotNull LibrarySource changed) {
+    synchronized (changedSources) {
+      if (!changedSources.contains(changed)) changedSources.append(changed);
+    }
   }
 
   @Override public void didChangeWatchedFiles(@NotNull DidChangeWatchedFilesParams params) {
@@ -242,22 +271,68 @@ public class AyaService implements WorkspaceService, TextDocumentService {
           if (src == null) return;
           Log.d("Deleted file: %s, removed from owner: %s", src.file(), src.owner().underlyingLibrary().name());
           switch (src.owner()) {
-            case MutableLibraryOwner owner -> owner.removeLibrarySource(src);
+            case MutableLibraryOwner owner -> {
+              owner.removeLibrarySource(src);
+              symbolIndex.remove(src);
+              highlightCache.remove(src);
+              completionIndex.remove(src);
+              diagnostics.remove(src.file());
+            }
             case WsLibrary owner -> libraries.removeAll(o -> o == owner);
             default -> {}
           }
         }
+        case Changed -> {
+          var src = find(change.getUri());
+          // opened files are synchronized by didChange
+          if (src == null || src.overlay().value != null) return;
+          markChanged(src);
+        }
       }
     });
   }
 
   @Override public void didOpen(DidOpenTextDocumentParams params) {
+    var document = params.getTextDocument();
+    var path = toPath(document.getUri());
+    if (libraries.isEmpty()) registerLibrary(path.getParent());
+    var source = find(path);
+    if (source == null) {
+      Log.w("Opened a file which does not belong to any library: %s", path);
+      return;
+    }
+    source.overlay().value = document.getText();
   }
 
   @Override public void didChange(DidChangeTextDocumentParams params) {
+    var source = find(params.getTextDocument().getUri());
+    if (source == null) return;
+    var text = source.overlay().value;
+    if (text == null) return;
+    for (var change : params.getContentChanges()) {
+      var range = change.getRange();
+      if (range == null) text = change.getText();
+      else {
+        var start = LspRange.toOffset(text, range.getStart());
+        var end = LspRange.toOffset(text, range.getEnd());
+        text = text.substring(0, start) + change.getText() + text.substring(end);
+      }
+    }
+    source.overlay().value = text;
+    recompile(source);
   }
 
   @Override public void didClose(DidCloseTextDocumentParams params) {
+    var source = find(params.getTextDocument().getUri());
+    if (source == null) return;
+    var text = source.overlay().value;
+    source.overlay().value = null;
+    // unsaved changes are discarded
+    try {
+      if (text != null && !text.equals(Files.readString(source.file()))) recompile(source);
+    } catch (IOException e) {
+      recompile(source);
+    }
   }
 
   @Override public void didSave(DidSaveTextDocumentParams params) {
@@ -267,8 +342,12 @@ public class AyaService implements WorkspaceService, TextDocumentService {
   }
 
   @Override
-  public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(CompletionParams position) {
-    return CompletableFuture.supplyAsync(() -> Either.forLeft(Collections.emptyList()));
+  public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(CompletionParams params) {
+    return CompletableFuture.supplyAsync(() -> {
+      var source = find(params.getTextDocument().getUri());
+      if (source == null) return Either.forLeft(Collections.emptyList());
+      return Either.forRight(Completion.invoke(completionIndex, source, params.getPosition()));
+    });
   }
 
   @Override
@@ -276,7 +355,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return Either.forLeft(Collections.emptyList());
-      return Either.forRight(GotoDefinition.invoke(source, params.getPosition(), libraries.view()));
+      return Either.forRight(GotoDefinition.invoke(symbolIndex, source, params.getPosition(), libraries.view()));
     });
   }
 
@@ -284,7 +363,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return null;
-      var doc = ComputeSignature.invokeHover(source, params.getPosition());
+      var doc = ComputeSignature.invokeHover(symbolIndex, source, params.getPosition());
       if (doc.isEmpty()) return null;
       return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, doc.debugRender()));
     });
@@ -295,7 +374,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return Collections.emptyList();
-      return FindReferences.invoke(source, params.getPosition(), libraries.view());
+      return FindReferences.invoke(symbolIndex, source, params.getPosition(), libraries.view());
     });
   }
 
@@ -303,7 +382,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return null;
-      var renames = Rename.rename(source, params.getPosition(), params.getNewName(), libraries.view());
+      var renames = Rename.rename(symbolIndex, source, params.getPosition(), params.getNewName(), libraries.view());
       return new WorkspaceEdit(renames);
     });
   }
@@ -312,7 +391,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return null;
-      var begin = Rename.prepare(source, params.getPosition());
+      var begin = Rename.prepare(symbolIndex, source, params.getPosition());
       if (begin == null) return null;
       return Either.forRight(new PrepareRenameResult(LspRange.toRange(begin.sourcePos()), begin.data()));
     });
@@ -323,34 +402,41 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return CompletableFuture.supplyAsync(() -> {
       var source = find(params.getTextDocument().getUri());
       if (source == null) return Collections.emptyList();
-      return FindReferences.findOccurrences(source, params.getPosition(), SeqView.of(source.owner()))
+      return FindReferences.findOccurrences(symbolIndex, source, params.getPosition(), SeqView.of(source.owner()))
         .filter(pos -> pos.file().underlying().equals(Option.of(source.file())))
         .map(pos -> new DocumentHighlight(LspRange.toRange(pos), DocumentHighlightKind.Read))
         .stream().toList();
     });
   }
 
-  public ComputeTermResult computeTerm(@NotNull ComputeTermResult.Params input, ComputeTerm.Kind type) {
-    var source = find(input.uri);
-    if (source == null) return ComputeTermResult.bad(input);
-    return new ComputeTerm(source, type).invoke(input);
+  @Override public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+    return CompletableFuture.supplyAsync(() -> {
+      var source = find(params.getTextDocument().getUri());
+      if (source == null) return new SemanticTokens(Collections.emptyList());
+      return highlightCache.tokens(source);
+    });
   }
 
-  public record InlineHintProblem(@NotNull Problem owner, WithPos<Doc> docWithPos) implements Problem {
-    @Override public @NotNull SourcePos sourcePos() {
-      return docWithPos.sourcePos();
-    }
-
-    @Override public @NotNull Doc describe(@NotNull DistillerOptions options) {
-      return docWithPos.data();
-    }
+  @Override
+  public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(SemanticTokensDeltaParams params) {
+    return CompletableFuture.supplyAsync(() -> {
+      var source = find(params.getTextDocument().getUri());
+      if (source == null) return Either.forLeft(new SemanticTokens(Collections.emptyList()));
+      return highlightCache.tokensDelta(source, params.getPreviousResultId());
+    });
+  }
 
-    @Override public @NotNull Severity level() {
-      return Severity.INFO;
-    }
+  @Override public CompletableFuture<SemanticTokens> semanticTokensRange(SemanticTokensRangeParams params) {
+    return CompletableFuture.supplyAsync(() -> {
+      var source = find(params.getTextDocument().getUri());
+      if (source == null) return new SemanticTokens(Collections.emptyList());
+      return highlightCache.tokens(source, params.getRange());
+    });
+  }
 
-    @Override public @NotNull Doc brief(@NotNull DistillerOptions options) {
-      return describe(DistillerOptions.pretty());
-    }
+  public ComputeTermResult computeTerm(@NotNull ComputeTermResult.Params input, ComputeTerm.Kind type) {
+    var source = find(input.uri);
+    if (source == null) return ComputeTermResult.bad(input);
+    return new ComputeTerm(symbolIndex, source, type).invoke(input);
   }
 }
@@ -0,0 +1,143 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import org.aya.cli.library.DependencyCache;
+import org.aya.lsp.models.StatsResult;
+import org.aya.tyck.NormalizeCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of each phase of each module, cache hit rates, heap usage and queue depth of the last compilations.
+ * Highlighting and rendering diagnostics happen after or aside the compilation,
+ * so they are attributed to the latest compilation.
+ */
+public final class CompileStats {
+  public static final int HISTORY = 20;
+  public static final @NotNull String HIGHLIGHT = "highlight";
+  public static final @NotNull String DIAGNOSTICS = "diagnostics";
+
+  public final class Compile {
+    private final @NotNull String library;
+    private final long startedAt = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final int queueDepth;
+    private final long normalizeHits = NormalizeCache.totalHits();
+    private final long normalizeMisses = NormalizeCache.totalMisses();
+    private final long dependencyHits = DependencyCache.SHARED.hits();
+    private final long dependencyMisses = DependencyCache.SHARED.misses();
+    private final @NotNull Map<Path, Map<String, Long>> modules = new ConcurrentHashMap<>();
+    /** Counters when finished, or null if still running */
+    private volatile @Nullable StatsResult.Compile finished = null;
+
+    private Compile(@NotNull String library, int queueDepth) {
+      this.library = library;
+      this.queueDepth = queueDepth;
+    }
+
+    public void record(@NotNull Path file, @NotNull String phase, long nanos) {
+      modules.computeIfAbsent(file, f -> new ConcurrentHashMap<>()).merge(phase, nanos, Long::sum);
+    }
+
+    public void finish(@NotNull String outcome) {
+      finished = counters(outcome);
+      if (logged) log(result());
+    }
+
+    private @NotNull StatsResult.Compile counters(@Nullable String outcome) {
+      var runtime = Runtime.getRuntime();
+      return new StatsResult.Compile(library, startedAt, (System.nanoTime() - startNanos) / 1e6, outcome, queueDepth,
+        StatsResult.CacheRate.of(NormalizeCache.totalHits() - normalizeHits, NormalizeCache.totalMisses() - normalizeMisses),
+        StatsResult.CacheRate.of(DependencyCache.SHARED.hits() - dependencyHits, DependencyCache.SHARED.misses() - dependencyMisses),
+        runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory(), List.of());
+    }
+
+    /** Phases recorded after the compilation is finished, like highlighting, are included as well. */
+    private @NotNull StatsResult.Compile result() {
+      var counters = finished;
+      if (counters == null) counters = counters(null);
+      var sorted = modules.entrySet().stream()
+        .map(kv -> {
+          var millis = new LinkedHashMap<String, Double>();
+          kv.getValue().forEach((phase, nanos) -> millis.put(phase, nanos / 1e6));
+          return new StatsResult.Module(kv.getKey().toUri().toString(), millis);
+        })
+        .sorted((a, b) -> Double.compare(total(b), total(a)))
+        .toList();
+      return new StatsResult.Compile(counters.library(), counters.startedAt(), counters.millis(), counters.outcome(),
+        counters.queueDepth(), counters.normalize(), counters.dependencies(), counters.heapUsed(), counters.heapMax(), sorted);
+    }
+  }
+
+  private final @NotNull ArrayDeque<Compile> history = new ArrayDeque<>();
+  private volatile boolean logged = false;
+  private @Nullable ScheduledExecutorService logger = null;
+
+  public synchronized @NotNull Compile start(@NotNull String library, int queueDepth) {
+    var compile = new Compile(library, queueDepth);
+    if (history.size() == HISTORY) history.removeFirst();
+    history.addLast(compile);
+    return compile;
+  }
+
+  /** Attributed to the latest compilation, if any. */
+  public void record(@NotNull Path file, @NotNull String phase, long nanos) {
+    Compile latest;
+    synchronized (this) {
+      latest = history.peekLast();
+    }
+    if (latest != null) latest.record(file, phase, nanos);
+  }
+
+  public synchronized @NotNull StatsResult result() {
+    return new StatsResult(history.stream().map(Compile::result).toList());
+  }
+
+  /** Log each compilation when finished, and a summary of the last compilations periodically. */
+  public synchronized void logEvery(long seconds) {
+    logged = true;
+    if (logger != null) logger.shutdown();
+    logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "aya-stats");
+      thread.setDaemon(true);
+      return thread;
+    });
+    logger.scheduleAtFixedRate(this::logSummary, seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  public synchronized void shutdown() {
+    if (logger != null) logger.shutdown();
+  }
+
+  private void logSummary() {
+    var compiles = result().compiles();
+    if (compiles.isEmpty()) return;
+    var runtime = Runtime.getRuntime();
+    Log.i("Last %d compilation(s) took %.1f ms on average, heap %d/%d MiB",
+      compiles.size(), compiles.stream().mapToDouble(StatsResult.Compile::millis).average().orElse(0),
+      (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20);
+  }
+
+  private static void log(@NotNull StatsResult.Compile compile) {
+    Log.i("Compiled %s in %.1f ms (%s): %d module(s), %d queued, normalize cache hit rate %.2f, dependency cache hit rate %.2f, heap %d/%d MiB",
+      compile.library(), compile.millis(), compile.outcome(), compile.modules().size(), compile.queueDepth(),
+      compile.normalize().hitRate(), compile.dependencies().hitRate(), compile.heapUsed() >> 20, compile.heapMax() >> 20);
+    compile.modules().stream().limit(5).forEach(module ->
+      Log.d("  %s: %s", module.uri(), module.millis()));
+  }
+
+  private static double total(@NotNull StatsResult.Module module) {
+    return module.millis().values().stream().mapToDouble(Double::doubleValue).sum();
+  }
+}
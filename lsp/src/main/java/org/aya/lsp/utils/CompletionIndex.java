@@ -0,0 +1,173 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
+import kala.tuple.Unit;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.Expr;
+import org.aya.concrete.stmt.Command;
+import org.aya.concrete.stmt.QualifiedID;
+import org.aya.concrete.stmt.Signatured;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.generic.Constants;
+import org.aya.parser.GeneratedLexerTokens;
+import org.aya.ref.LocalVar;
+import org.aya.ref.Var;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names in scope of each module sorted for prefix lookups, built when the module is resolved.
+ * The last index of a module is kept when it fails to resolve, since the user is probably still typing.
+ */
+public final class CompletionIndex {
+  /** @param var null for keywords */
+  public record Candidate(@NotNull String label, @Nullable Var var, @NotNull String detail) {
+  }
+
+  private static final @NotNull PrefixIndex<Candidate> KEYWORDS = new PrefixIndex<>(ImmutableSeq.from(
+    GeneratedLexerTokens.KEYWORDS.values()).map(kw -> Tuple.of(kw, new Candidate(kw, null, "keyword"))));
+
+  private static final class ModuleNames {
+    private final @NotNull ResolveInfo info;
+    /** Definitions and modules in scope */
+    private final @NotNull PrefixIndex<Candidate> unqualified;
+    /** Definitions in each module in scope, indexed on demand */
+    private final @NotNull Map<ImmutableSeq<String>, PrefixIndex<Candidate>> qualified = new ConcurrentHashMap<>();
+
+    private ModuleNames(@NotNull ResolveInfo info) {
+      this.info = info;
+      var entries = MutableList.<Tuple2<String, Candidate>>create();
+      var context = info.thisModule();
+      context.definitions().forEach((name, candidates) -> {
+        if (name.startsWith(Constants.ANONYMOUS_PREFIX)) return;
+        candidates.forEach((module, var) -> entries.append(Tuple.of(name,
+          new Candidate(name, var, module.joinToString(Constants.SCOPE_SEPARATOR)))));
+      });
+      context.modules().forEach((module, contents) -> {
+        if (module.isEmpty()) return;
+        var name = module.joinToString(Constants.SCOPE_SEPARATOR);
+        var mod = new ModuleVar(new QualifiedID(SourcePos.NONE, module));
+        entries.append(Tuple.of(name, new Candidate(name, mod, "module")));
+      });
+      unqualified = new PrefixIndex<>(entries);
+    }
+
+    private @Nullable PrefixIndex<Candidate> qualified(@NotNull ImmutableSeq<String> module) {
+      var contents = info.thisModule().modules().getOrNull(module);
+      if (contents == null) return null;
+      var detail = module.joinToString(Constants.SCOPE_SEPARATOR);
+      return qualified.computeIfAbsent(module, m -> {
+        var entries = MutableList.<Tuple2<String, Candidate>>create();
+        contents.forEach((name, var) -> entries.append(Tuple.of(name, new Candidate(name, var, detail))));
+        return new PrefixIndex<>(entries);
+      });
+    }
+  }
+
+  private final @NotNull Map<LibrarySource, ModuleNames> modules = new ConcurrentHashMap<>();
+
+  private @Nullable ModuleNames names(@NotNull LibrarySource source) {
+    var info = source.resolveInfo().value;
+    var names = modules.get(source);
+    if (info == null || names != null && names.info == info) return names;
+    names = new ModuleNames(info);
+    modules.put(source, names);
+    return names;
+  }
+
+  /** Index the modules resolved again in the last compilation of the library. */
+  public void update(@NotNull LibraryOwner owner) {
+    owner.librarySources().forEach(this::names);
+    owner.libraryDeps().forEach(this::update);
+  }
+
+  public void remove(@NotNull LibrarySource source) {
+    modules.remove(source);
+  }
+
+  /**
+   * @param prefix the part of a possibly qualified name before the cursor
+   * @return at most {@code limit} candidates starting with the prefix,
+   * which are the names in the module if the prefix is qualified,
+   * or the local variables, definitions, modules and keywords otherwise.
+   */
+  public @NotNull ImmutableSeq<Candidate> complete(
+    @NotNull LibrarySource source, @NotNull XY xy,
+    @NotNull String prefix, int limit
+  ) {
+    var result = MutableList.<Candidate>create();
+    var names = names(source);
+    var separator = prefix.lastIndexOf(Constants.SCOPE_SEPARATOR);
+    if (separator >= 0) {
+      var module = ImmutableSeq.from(prefix.substring(0, separator).split(Constants.SCOPE_SEPARATOR));
+      var index = names != null ? names.qualified(module) : null;
+      if (index != null)
+        index.withPrefix(prefix.substring(separator + Constants.SCOPE_SEPARATOR.length()), limit, result);
+      return result.toImmutableSeq();
+    }
+    locals(source, xy, prefix).view().take(limit).forEach(result::append);
+    if (names != null) names.unqualified.withPrefix(prefix, limit - result.size(), result);
+    KEYWORDS.withPrefix(prefix, limit - result.size(), result);
+    return result.toImmutableSeq();
+  }
+
+  /**
+   * The local variables in scope are approximated by the ones bound in the declaration at the cursor
+   * before the cursor, so that only the declaration is traversed.
+   * Binders are collected as well as references, so that a fresh binder is offered before it is used.
+   */
+  private static @NotNull ImmutableSeq<Candidate> locals(@NotNull LibrarySource source, @NotNull XY xy, @NotNull String prefix) {
+    var program = source.program().value;
+    var decl = program != null ? declAt(program, xy) : null;
+    if (decl == null) return ImmutableSeq.empty();
+    var locals = new LinkedHashMap<String, LocalVar>();
+    var resolver = new Resolver.ReferringResolver<Unit>() {
+      @Override protected void check(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+        if (var instanceof LocalVar local) add(local);
+      }
+
+      /** Binders of lambdas, Pi and Sigma types, which are in scope before they are referred to */
+      @Override public void visitParams(@NotNull ImmutableSeq<Expr.@NotNull Param> params, Unit unit) {
+        params.forEach(param -> add(param.ref()));
+        super.visitParams(params, unit);
+      }
+
+      private void add(@NotNull LocalVar local) {
+        var name = local.name();
+        if (!name.startsWith(prefix) || name.startsWith(Constants.ANONYMOUS_PREFIX)) return;
+        var definition = local.definition();
+        if (definition.startLine() < xy.x() || definition.startLine() == xy.x() && definition.startColumn() <= xy.y())
+          locals.put(name, local);
+      }
+    };
+    decl.telescope.forEach(param -> resolver.add(param.ref()));
+    ((Stmt) decl).accept(resolver, Unit.unit());
+    return ImmutableSeq.from(locals.values()).map(local -> new Candidate(local.name(), local, "local"));
+  }
+
+  private static @Nullable Signatured declAt(@NotNull ImmutableSeq<Stmt> program, @NotNull XY xy) {
+    for (var stmt : program) {
+      if (stmt instanceof Command.Module module) {
+        var decl = declAt(module.contents(), xy);
+        if (decl != null) return decl;
+      }
+      // the column check in XY is meaningless for declarations spanning multiple lines
+      if (stmt instanceof Signatured decl
+        && decl.entireSourcePos.startLine() <= xy.x() && xy.x() <= decl.entireSourcePos.endLine())
+        return decl;
+    }
+    return null;
+  }
+}
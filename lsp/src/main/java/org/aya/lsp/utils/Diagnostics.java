@@ -0,0 +1,151 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
+import org.aya.pretty.doc.Doc;
+import org.aya.util.distill.DistillerOptions;
+import org.aya.util.error.SourcePos;
+import org.aya.util.error.WithPos;
+import org.aya.util.reporter.Problem;
+import org.aya.util.reporter.Reporter;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects problems grouped by files during a compilation, and publishes the problems of a module
+ * as soon as the module is tycked instead of after the whole compilation.
+ * Problems are rendered to diagnostics on a separate thread, and only the files whose diagnostics
+ * differ from the ones last published are published again.
+ * Files which are not compiled again keep their diagnostics.
+ */
+public final class Diagnostics implements Reporter {
+  private final @NotNull DistillerOptions options;
+  private final @NotNull CompileStats stats;
+  /** Problems reported in the current compilation */
+  private final @NotNull MutableMap<Path, MutableList<Problem>> problems = MutableMap.create();
+  /** Files published in the current compilation */
+  private final @NotNull MutableSet<Path> published = MutableSet.create();
+  /** Only accessed by the renderer */
+  private final @NotNull Map<Path, List<Diagnostic>> lastPublished = new HashMap<>();
+  private final @NotNull ExecutorService renderer = Executors.newSingleThreadExecutor(runnable -> {
+    var thread = new Thread(runnable, "aya-diagnostics");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public Diagnostics(@NotNull DistillerOptions options, @NotNull CompileStats stats) {
+    this.options = options;
+    this.stats = stats;
+  }
+
+  @Override public synchronized void report(@NotNull Problem problem) {
+    if (!problem.sourcePos().belongsToSomeFile()) return;
+    problem.sourcePos().file().underlying().forEach(file ->
+      problems.getOrPut(file, MutableList::create).append(problem));
+  }
+
+  /** Forget the problems of the last compilation, which are published already. */
+  public synchronized void clear() {
+    problems.clear();
+    published.clear();
+  }
+
+  /** Publish the problems of a file, for example when its module is tycked. */
+  public synchronized void publish(@NotNull Path file) {
+    published.add(file);
+    var reported = problems.getOrNull(file);
+    var snapshot = reported == null ? ImmutableSeq.<Problem>empty() : reported.toImmutableSeq();
+    renderer.execute(() -> render(file, snapshot));
+  }
+
+  /** Publish the files with problems which are not published yet, after the compilation. */
+  public synchronized void publishRemaining() {
+    problems.keysView().filterNot(published::contains).toImmutableSeq().forEach(this::publish);
+  }
+
+  /** Clear the diagnostics of a deleted file. */
+  public void remove(@NotNull Path file) {
+    renderer.execute(() -> {
+      if (lastPublished.remove(file) != null)
+        Log.publishProblems(new PublishDiagnosticsParams(file.toUri().toString(), Collections.emptyList()));
+    });
+  }
+
+  public void shutdown() {
+    renderer.shutdown();
+  }
+
+  private void render(@NotNull Path file, @NotNull ImmutableSeq<Problem> reported) {
+    var startTime = System.nanoTime();
+    var grouped = new LinkedHashMap<SourcePos, MutableList<Problem>>();
+    reported.forEach(problem -> {
+      Log.d("%s", problem.describe(options).debugRender());
+      grouped.computeIfAbsent(problem.sourcePos(), pos -> MutableList.create()).append(problem);
+      problem.inlineHints(options).forEach(hint -> grouped
+        .computeIfAbsent(hint.sourcePos(), pos -> MutableList.create())
+        .append(new InlineHintProblem(problem, hint)));
+    });
+    var diagnostics = grouped.entrySet().stream()
+      .map(kv -> toDiagnostic(kv.getKey(), kv.getValue()))
+      .toList();
+    stats.record(file, CompileStats.DIAGNOSTICS, System.nanoTime() - startTime);
+    if (diagnostics.equals(lastPublished.getOrDefault(file, Collections.emptyList()))) return;
+    Log.d("Found %d issues in %s", reported.size(), file);
+    lastPublished.put(file, diagnostics);
+    Log.publishProblems(new PublishDiagnosticsParams(file.toUri().toString(), diagnostics));
+  }
+
+  private @NotNull Diagnostic toDiagnostic(@NotNull SourcePos sourcePos, @NotNull MutableList<Problem> problems) {
+    var msgBuilder = new StringBuilder();
+    var severity = DiagnosticSeverity.Hint;
+    for (var p : problems) {
+      msgBuilder.append(p.brief(options).debugRender()).append('\n');
+      var ps = severityOf(p);
+      if (ps.getValue() < severity.getValue()) severity = ps;
+    }
+    return new Diagnostic(LspRange.toRange(sourcePos),
+      msgBuilder.toString(), severity, "Aya");
+  }
+
+  private static @NotNull DiagnosticSeverity severityOf(@NotNull Problem problem) {
+    return switch (problem.level()) {
+      case WARN -> DiagnosticSeverity.Warning;
+      case ERROR -> DiagnosticSeverity.Error;
+      case INFO -> DiagnosticSeverity.Information;
+      case GOAL -> DiagnosticSeverity.Hint;
+    };
+  }
+
+  public record InlineHintProblem(@NotNull Problem owner, WithPos<Doc> docWithPos) implements Problem {
+    @Override public @NotNull SourcePos sourcePos() {
+      return docWithPos.sourcePos();
+    }
+
+    @Override public @NotNull Doc describe(@NotNull DistillerOptions options) {
+      return docWithPos.data();
+    }
+
+    @Override public @NotNull Severity level() {
+      return Severity.INFO;
+    }
+
+    @Override public @NotNull Doc brief(@NotNull DistillerOptions options) {
+      return describe(DistillerOptions.pretty());
+    }
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.lsp.actions.SemanticHighlight;
+import org.aya.lsp.actions.SyntaxHighlight;
+import org.aya.lsp.models.HighlightResult;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Highlights of each module, recomputed only when the module is parsed again,
+ * and the highlights last sent to the client, so that only the changed ones are sent again.
+ * The semantic tokens last sent are kept as well, so that the next ones can be sent as a delta.
+ */
+public final class HighlightCache {
+  private record Highlighted(@NotNull ImmutableSeq<Stmt> program, @NotNull HighlightResult result) {
+  }
+
+  private final @NotNull Map<LibrarySource, Highlighted> highlighted = new ConcurrentHashMap<>();
+  private final @NotNull Map<LibrarySource, HighlightResult> sent = new ConcurrentHashMap<>();
+
+  private record Tokens(@NotNull HighlightResult highlight, @NotNull SemanticTokens tokens) {
+  }
+
+  private final @NotNull Map<LibrarySource, Tokens> tokens = new ConcurrentHashMap<>();
+  private final @NotNull AtomicLong resultIds = new AtomicLong();
+  private final @NotNull CompileStats stats;
+
+  public HighlightCache(@NotNull CompileStats stats) {
+    this.stats = stats;
+  }
+
+  public @NotNull HighlightResult highlight(@NotNull LibrarySource source) {
+    var program = source.program().value;
+    if (program == null) return new HighlightResult(source.file().toUri().toString(), ImmutableSeq.empty());
+    var cached = highlighted.get(source);
+    if (cached != null && cached.program == program) return cached.result;
+    var startTime = System.nanoTime();
+    var symbols = MutableList.<HighlightResult.Symbol>create();
+    program.forEach(d -> d.accept(SyntaxHighlight.INSTANCE, symbols));
+    var result = new HighlightResult(source.file().toUri().toString(),
+      symbols.view().filter(t -> t.range() != LspRange.NONE));
+    highlighted.put(source, new Highlighted(program, result));
+    stats.record(source.file(), CompileStats.HIGHLIGHT, System.nanoTime() - startTime);
+    return result;
+  }
+
+  /**
+   * @param requested always highlighted, since the client may have dropped its highlights
+   * @return highlights of the modules in the library and its dependencies which differ from the ones last sent
+   */
+  public @NotNull ImmutableSeq<HighlightResult> changed(@NotNull LibraryOwner owner, @Nullable LibrarySource requested) {
+    var result = MutableList.<HighlightResult>create();
+    collect(owner, requested, result);
+    return result.toImmutableSeq();
+  }
+
+  private void collect(
+    @NotNull LibraryOwner owner, @Nullable LibrarySource requested,
+    @NotNull MutableList<HighlightResult> result
+  ) {
+    owner.librarySources().forEach(src -> {
+      var highlight = highlight(src);
+      var last = sent.put(src, highlight);
+      if (src == requested || !highlight.equals(last)) result.append(highlight);
+    });
+    for (var dep : owner.libraryDeps()) collect(dep, requested, result);
+  }
+
+  /** @return semantic tokens of the whole module, which are kept for later deltas */
+  public @NotNull SemanticTokens tokens(@NotNull LibrarySource source) {
+    var highlight = highlight(source);
+    var previous = tokens.get(source);
+    if (previous != null && previous.highlight == highlight) return previous.tokens;
+    var result = new SemanticTokens(String.valueOf(resultIds.incrementAndGet()), SemanticHighlight.encode(highlight, null));
+    tokens.put(source, new Tokens(highlight, result));
+    return result;
+  }
+
+  public @NotNull SemanticTokens tokens(@NotNull LibrarySource source, @NotNull Range range) {
+    return new SemanticTokens(SemanticHighlight.encode(highlight(source), range));
+  }
+
+  /** @return the whole semantic tokens if the previous ones are not the ones last sent */
+  public @NotNull Either<SemanticTokens, SemanticTokensDelta> tokensDelta(
+    @NotNull LibrarySource source, @NotNull String previousResultId
+  ) {
+    var previous = tokens.get(source);
+    var current = tokens(source);
+    if (previous == null || !previous.tokens.getResultId().equals(previousResultId)) return Either.forLeft(current);
+    var edits = current == previous.tokens ? List.<SemanticTokensEdit>of()
+      : List.of(SemanticHighlight.diff(previous.tokens.getData(), current.getData()));
+    return Either.forRight(new SemanticTokensDelta(edits, current.getResultId()));
+  }
+
+  public void remove(@NotNull LibrarySource source) {
+    highlighted.remove(source);
+    sent.remove(source);
+    tokens.remove(source);
+  }
+}
@@ -21,6 +21,9 @@ public class LspArgs {
   public String host;
   @Option(names = {"-p", "--port"}, description = "Specify port.", defaultValue = "11451")
   public int port;
+  @Option(names = {"--stats-interval"}, description = "Log compilation statistics, " +
+    "and a summary of the last compilations every this many seconds. 0 to disable.", defaultValue = "0")
+  public long statsInterval;
 
   public enum Mode {
     server,
@@ -22,6 +22,17 @@ public class LspRange {
       new Position(sourcePos.endLine() - 1, sourcePos.endColumn() + 1));
   }
 
+  /** @return the offset of the position in the text, where characters are counted in UTF-16 code units */
+  public static int toOffset(@NotNull String text, @NotNull Position position) {
+    var offset = 0;
+    for (int line = 0; line < position.getLine(); line++) {
+      var next = text.indexOf('\n', offset);
+      if (next < 0) return text.length();
+      offset = next + 1;
+    }
+    return Math.min(offset + position.getCharacter(), text.length());
+  }
+
   public static @Nullable LocationLink toLoc(@NotNull SourcePos from, @NotNull SourcePos to) {
     var uri = to.file().underlying().map(Path::toUri).map(Objects::toString);
     if (uri.isEmpty()) return null;
@@ -0,0 +1,66 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.util.error.WithPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * An immutable interval tree over the lines of the source positions of syntax nodes in a module,
+ * so that finding the nodes at a position takes logarithmic time instead of a traversal of the module.
+ * The tree is implicit in the array of nodes sorted by their start lines:
+ * the root of a range of the array is its middle element.
+ */
+public final class PositionIndex<T> {
+  private record Node<T>(@NotNull WithPos<T> node, int order) {
+    private int startLine() {
+      return node.sourcePos().startLine();
+    }
+  }
+
+  private final @NotNull ImmutableSeq<Node<T>> nodes;
+  /** The maximum end line in the subtree rooted at each node */
+  private final int @NotNull [] maxEndLines;
+
+  public PositionIndex(@NotNull SeqLike<WithPos<T>> nodes) {
+    var sorted = new ArrayList<Node<T>>(nodes.size());
+    nodes.forEachIndexed((i, node) -> sorted.add(new Node<>(node, i)));
+    sorted.sort(Comparator.comparingInt(Node::startLine));
+    this.nodes = ImmutableSeq.from(sorted);
+    this.maxEndLines = new int[sorted.size()];
+    build(0, sorted.size());
+  }
+
+  private int build(int lo, int hi) {
+    if (lo >= hi) return Integer.MIN_VALUE;
+    var mid = (lo + hi) >>> 1;
+    var max = Math.max(nodes.get(mid).node.sourcePos().endLine(), Math.max(build(lo, mid), build(mid + 1, hi)));
+    maxEndLines[mid] = max;
+    return max;
+  }
+
+  /** @return the nodes containing the position, in the order they were given */
+  public @NotNull ImmutableSeq<WithPos<T>> at(@NotNull XY xy) {
+    var found = new ArrayList<Node<T>>();
+    collect(0, nodes.size(), xy, found);
+    found.sort(Comparator.comparingInt(Node::order));
+    return ImmutableSeq.from(found).map(Node::node);
+  }
+
+  private void collect(int lo, int hi, @NotNull XY xy, @NotNull ArrayList<Node<T>> found) {
+    if (lo >= hi) return;
+    var mid = (lo + hi) >>> 1;
+    if (maxEndLines[mid] < xy.x()) return;
+    collect(lo, mid, xy, found);
+    var node = nodes.get(mid);
+    // nodes on the right start no earlier than this one
+    if (node.startLine() > xy.x()) return;
+    if (xy.inside(node.node.sourcePos())) found.add(node);
+    collect(mid + 1, hi, xy, found);
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.tuple.Tuple2;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * An immutable array of entries sorted by their keys,
+ * so that the entries whose keys start with a prefix are found by a binary search.
+ */
+public final class PrefixIndex<T> {
+  private final @NotNull ImmutableSeq<Tuple2<String, T>> entries;
+
+  public PrefixIndex(@NotNull SeqLike<Tuple2<String, T>> entries) {
+    var sorted = new ArrayList<Tuple2<String, T>>(entries.size());
+    entries.forEach(sorted::add);
+    sorted.sort(Comparator.comparing((Tuple2<String, T> entry) -> entry._1));
+    this.entries = ImmutableSeq.from(sorted);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param limit the maximum number of entries to append
+   * @return the number of entries appended
+   */
+  public int withPrefix(@NotNull String prefix, int limit, @NotNull MutableList<T> result) {
+    var lo = 0;
+    var hi = entries.size();
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (entries.get(mid)._1.compareTo(prefix) < 0) lo = mid + 1;
+      else hi = mid;
+    }
+    var count = 0;
+    for (var i = lo; i < entries.size() && count < limit && entries.get(i)._1.startsWith(prefix); i++, count++)
+      result.append(entries.get(i)._2);
+    return count;
+  }
+}
@@ -42,14 +42,11 @@ public interface Resolver {
 
   /** resolve the position to its referring target */
   static @NotNull SeqView<WithPos<@NotNull Var>> resolveVar(
+    @NotNull SymbolIndex index,
     @NotNull LibrarySource source,
     @NotNull Position position
   ) {
-    var program = source.program().value;
-    if (program == null) return SeqView.empty();
-    var resolver = new PositionResolver();
-    resolver.visitAll(program, new XY(position));
-    return resolver.targetVars.view().mapNotNull(pos -> switch (pos.data()) {
+    return index.varsAt(source, new XY(position)).view().mapNotNull(pos -> switch (pos.data()) {
       case DefVar<?, ?> defVar -> {
         if (defVar.concrete != null) yield new WithPos<>(pos.sourcePos(), defVar);
         // defVar is an imported and serialized symbol, so we need to find the original one
@@ -144,58 +141,70 @@ public interface Resolver {
   /**
    * In short, this class resolves position to PsiNameIdentifierOwner or PsiNamedElement.
    * <p>
-   * Resolve position to its referring target. This class extends the
-   * search to definitions and module commands compared to {@link ReferringResolver},
+   * Collect the positions of all referring targets in a module, see {@link PositionIndex}.
+   * This class extends the search to definitions and module commands compared to {@link ReferringResolver},
    * because the position may be placed at the name part of a function, a tele,
    * an import command, etc.
+   * Referring terms with their core terms are also collected.
    *
    * @author ice1000, kiva
    */
-  class PositionResolver extends ReferringResolver<XY> {
+  class PositionResolver extends ReferringResolver<Unit> {
     public final @NotNull MutableList<WithPos<Var>> targetVars = MutableList.create();
+    public final @NotNull MutableList<WithPos<Expr.WithTerm>> targetTerms = MutableList.create();
 
-    @Override public Unit visitImport(@NotNull Command.Import cmd, XY xy) {
+    @Override public Unit visitImport(@NotNull Command.Import cmd, Unit unit) {
       var path = cmd.path();
-      check(xy, new ModuleVar(path), path.sourcePos());
-      return super.visitImport(cmd, xy);
+      check(unit, new ModuleVar(path), path.sourcePos());
+      return super.visitImport(cmd, unit);
     }
 
-    @Override public Unit visitOpen(@NotNull Command.Open cmd, XY xy) {
+    @Override public Unit visitOpen(@NotNull Command.Open cmd, Unit unit) {
       var path = cmd.path();
-      check(xy, new ModuleVar(path), path.sourcePos());
-      return super.visitOpen(cmd, xy);
+      check(unit, new ModuleVar(path), path.sourcePos());
+      return super.visitOpen(cmd, unit);
     }
 
-    @Override public void visitSignatured(@NotNull Signatured signatured, XY xy) {
+    @Override public void visitSignatured(@NotNull Signatured signatured, Unit unit) {
       signatured.telescope
         .filterNot(tele -> tele.ref().name().startsWith(Constants.ANONYMOUS_PREFIX))
-        .forEach(tele -> check(xy, tele.ref(), tele.sourcePos()));
-      super.visitSignatured(signatured, xy);
+        .forEach(tele -> check(unit, tele.ref(), tele.sourcePos()));
+      super.visitSignatured(signatured, unit);
     }
 
-    @Override public void visitDecl(@NotNull Decl decl, XY xy) {
-      check(xy, decl.ref(), decl.sourcePos());
-      super.visitDecl(decl, xy);
+    @Override public void visitDecl(@NotNull Decl decl, Unit unit) {
+      check(unit, decl.ref(), decl.sourcePos());
+      super.visitDecl(decl, unit);
     }
 
-    @Override public Unit visitCtor(@NotNull Decl.DataCtor ctor, XY xy) {
-      check(xy, ctor.ref(), ctor.sourcePos());
-      return super.visitCtor(ctor, xy);
+    @Override public Unit visitCtor(@NotNull Decl.DataCtor ctor, Unit unit) {
+      check(unit, ctor.ref(), ctor.sourcePos());
+      return super.visitCtor(ctor, unit);
     }
 
-    @Override public Unit visitField(@NotNull Decl.StructField field, XY xy) {
-      check(xy, field.ref(), field.sourcePos());
-      return super.visitField(field, xy);
+    @Override public Unit visitField(@NotNull Decl.StructField field, Unit unit) {
+      check(unit, field.ref(), field.sourcePos());
+      return super.visitField(field, unit);
     }
 
-    @Override public Unit visitNew(@NotNull Expr.NewExpr expr, XY xy) {
+    @Override public Unit visitNew(@NotNull Expr.NewExpr expr, Unit unit) {
       expr.fields().forEach(field -> field.bindings().forEach(binding ->
-        check(xy, binding.data(), binding.sourcePos())));
-      return super.visitNew(expr, xy);
+        check(unit, binding.data(), binding.sourcePos())));
+      return super.visitNew(expr, unit);
     }
 
-    @Override protected void check(@NotNull XY xy, @NotNull Var var, @NotNull SourcePos sourcePos) {
-      if (xy.inside(sourcePos)) targetVars.append(new WithPos<>(sourcePos, var));
+    @Override public @NotNull Unit visitRef(@NotNull Expr.RefExpr expr, Unit unit) {
+      targetTerms.append(new WithPos<>(expr.sourcePos(), expr));
+      return super.visitRef(expr, unit);
+    }
+
+    @Override public @NotNull Unit visitProj(@NotNull Expr.ProjExpr expr, Unit unit) {
+      targetTerms.append(new WithPos<>(expr.sourcePos(), expr));
+      return super.visitProj(expr, unit);
+    }
+
+    @Override protected void check(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+      targetVars.append(new WithPos<>(sourcePos, var));
     }
   }
 
@@ -0,0 +1,118 @@
+// Copyright (c) 2020-2022 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.utils;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.tuple.Unit;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.Expr;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.ref.DefVar;
+import org.aya.ref.Var;
+import org.aya.util.error.SourcePos;
+import org.aya.util.error.WithPos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Usages of variables in each module, as found by {@link Resolver.UsageResolver},
+ * so that finding references does not traverse all modules,
+ * and the syntax nodes at each position, as found by {@link Resolver.PositionResolver},
+ * so that hovering does not traverse the whole module.
+ * The index of a module is rebuilt only when the module is parsed again.
+ */
+public final class SymbolIndex {
+  /** Imported serialized definitions are compared by qualified names, see {@link Resolver.UsageResolver} */
+  private record Qualified(@NotNull ImmutableSeq<String> module, @NotNull String name) {
+  }
+
+  private static final class ModuleIndex extends Resolver.ReferringResolver<Unit> {
+    private final @NotNull ImmutableSeq<Stmt> program;
+    private final @NotNull Map<Var, MutableList<SourcePos>> vars = new IdentityHashMap<>();
+    private final @NotNull MutableMap<Qualified, MutableList<SourcePos>> defs = MutableMap.create();
+    private final @NotNull PositionIndex<Var> positions;
+    private final @NotNull PositionIndex<Expr.WithTerm> terms;
+
+    private ModuleIndex(@NotNull ImmutableSeq<Stmt> program) {
+      this.program = program;
+      visitAll(program, Unit.unit());
+      var resolver = new Resolver.PositionResolver();
+      resolver.visitAll(program, Unit.unit());
+      positions = new PositionIndex<>(resolver.targetVars);
+      terms = new PositionIndex<>(resolver.targetTerms);
+    }
+
+    @Override protected void check(@NotNull Unit unit, @NotNull Var var, @NotNull SourcePos sourcePos) {
+      vars.computeIfAbsent(var, v -> MutableList.create()).append(sourcePos);
+      if (var instanceof DefVar<?, ?> defVar && defVar.module != null)
+        defs.getOrPut(new Qualified(defVar.module, defVar.name()), MutableList::create).append(sourcePos);
+    }
+
+    private @NotNull SeqView<SourcePos> usages(@NotNull Var var) {
+      if (var instanceof DefVar<?, ?> defVar && defVar.module != null) {
+        var usages = defs.getOrNull(new Qualified(defVar.module, defVar.name()));
+        return usages != null ? usages.view() : SeqView.empty();
+      }
+      var usages = vars.get(var);
+      return usages != null ? usages.view() : SeqView.empty();
+    }
+  }
+
+  private final @NotNull Map<LibrarySource, ModuleIndex> modules = new ConcurrentHashMap<>();
+
+  private @Nullable ModuleIndex index(@NotNull LibrarySource source) {
+    var program = source.program().value;
+    if (program == null) return null;
+    var index = modules.get(source);
+    if (index != null && index.program == program) return index;
+    index = new ModuleIndex(program);
+    // the program may be parsed but not yet resolved
+    if (source.resolveInfo().value != null) modules.put(source, index);
+    return index;
+  }
+
+  /** Index the modules parsed again in the last compilation of the library. */
+  public void update(@NotNull LibraryOwner owner) {
+    owner.librarySources().forEach(this::index);
+    owner.libraryDeps().forEach(this::update);
+  }
+
+  public void remove(@NotNull LibrarySource source) {
+    modules.remove(source);
+  }
+
+  /** @return the variables at the position, including the ones at their definitions */
+  public @NotNull ImmutableSeq<WithPos<Var>> varsAt(@NotNull LibrarySource source, @NotNull XY xy) {
+    var index = index(source);
+    return index != null ? index.positions.at(xy) : ImmutableSeq.empty();
+  }
+
+  /** @return the referring terms at the position, the innermost one last */
+  public @NotNull ImmutableSeq<WithPos<Expr.WithTerm>> termsAt(@NotNull LibrarySource source, @NotNull XY xy) {
+    var index = index(source);
+    return index != null ? index.terms.at(xy) : ImmutableSeq.empty();
+  }
+
+  /** @return usages of the variable in the libraries and their dependencies */
+  public @NotNull SeqView<SourcePos> usages(@NotNull SeqView<LibraryOwner> libraries, @NotNull Var var) {
+    var usages = MutableList.<SourcePos>create();
+    libraries.forEach(owner -> collect(owner, var, usages));
+    return usages.view();
+  }
+
+  private void collect(@NotNull LibraryOwner owner, @NotNull Var var, @NotNull MutableList<SourcePos> usages) {
+    owner.librarySources().forEach(source -> {
+      var index = index(source);
+      if (index != null) usages.appendAll(index.usages(var));
+    });
+    owner.libraryDeps().forEach(dep -> collect(dep, var, usages));
+  }
+}
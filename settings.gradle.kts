@@ -17,4 +17,5 @@ include(
   "base",
   "pretty",
   "lsp",
+  "benchmarks",
 )
@@ -4,9 +4,22 @@ package org.aya.util;
 
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.*;
+import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * The edges are built in {@link #E}, and the algorithms visiting the whole graph run on
+ * an {@link Indexed} snapshot of them, so that vertices are hashed once per run instead of once per edge visit.
+ */
 public record MutableGraph<T>(@NotNull MutableMap<T, @NotNull MutableList<@NotNull T>> E) {
   public static @NotNull <T> MutableGraph<T> create() {
     return new MutableGraph<>(MutableLinkedHashMap.of());
@@ -21,15 +34,21 @@ public record MutableGraph<T>(@NotNull MutableMap<T, @NotNull MutableList<@NotNu
     return suc == null ? SeqView.empty() : suc.view();
   }
 
+  /** Only visits the vertices reachable from {@code from}, so no {@link Indexed} snapshot is built. */
   public boolean hasPath(@NotNull T from, @NotNull T to) {
-    return hasPath(MutableSet.create(), from, to);
-  }
-
-  private boolean hasPath(@NotNull MutableSet<T> book, @NotNull T from, @NotNull T to) {
-    if (from == to) return true;
-    if (book.contains(from)) return false;
+    if (Objects.equals(from, to)) return true;
+    var book = MutableSet.<T>create();
+    var stack = new ArrayDeque<T>();
     book.add(from);
-    for (var test : suc(from)) if (hasPath(book, test, to)) return true;
+    stack.push(from);
+    while (!stack.isEmpty()) {
+      for (var test : suc(stack.pop())) {
+        if (Objects.equals(test, to)) return true;
+        if (book.contains(test)) continue;
+        book.add(test);
+        stack.push(test);
+      }
+    }
     return false;
   }
 
@@ -42,87 +61,140 @@ public record MutableGraph<T>(@NotNull MutableMap<T, @NotNull MutableList<@NotNu
    * whose edge (v, w) means v depends on w.
    */
   public ImmutableSeq<ImmutableSeq<T>> topologicalOrder() {
-    return new Tarjan().tarjan();
+    return new Indexed<>(this).tarjan();
   }
 
+  /** Vertices without successors are keys of the transpose as well, after the keys of {@link #E}. */
   public @NotNull MutableGraph<T> transpose() {
+    var graph = new Indexed<>(this);
+    var n = graph.size();
+    var offsets = new int[n + 1];
+    for (var w : graph.targets) offsets[w + 1]++;
+    for (var v = 0; v < n; v++) offsets[v + 1] += offsets[v];
+    var targets = new int[graph.targets.length];
+    var fill = Arrays.copyOf(offsets, n);
+    for (var v = 0; v < n; v++)
+      for (var e = graph.begin(v); e < graph.end(v); e++)
+        targets[fill[graph.targets[e]]++] = v;
     var tr = MutableGraph.<T>create();
-    E.forEach((v, ws) -> {
-      tr.sucMut(v);
-      ws.forEach(w -> tr.sucMut(w).append(v));
-    });
-    return tr;
-  }
-
-  private static class Info {
-    static final int INDEX_NONE = Integer.MAX_VALUE;
-    int index = INDEX_NONE;
-    int lowlink = INDEX_NONE;
-    boolean free = false;
-
-    boolean noIndex() {
-      return index == INDEX_NONE;
+    for (var w = 0; w < n; w++) {
+      var suc = tr.sucMut(graph.vertices.get(w));
+      for (var e = offsets[w]; e < offsets[w + 1]; e++) suc.append(graph.vertices.get(targets[e]));
     }
+    return tr;
   }
 
   /**
-   * Find strongly connected components in a graph,
-   * and return the topological order (need reversing) of the components.
+   * A snapshot of the graph in compressed sparse rows: the vertices are numbered,
+   * keys of {@link #E} first in their order, then the other successors in the order they are met,
+   * and the successors of vertex {@code v} are {@code targets[offsets[v] .. offsets[v + 1]]}.
    */
-  private class Tarjan {
-    final MutableMap<T, Info> info = MutableLinkedHashMap.of();
-    final MutableSinglyLinkedList<T> stack = MutableSinglyLinkedList.create();
-    final MutableList<ImmutableSeq<T>> SCCs = MutableList.create();
-    int index = 0;
-
-    private @NotNull Info info(@NotNull T t) {
-      return info.getOrPut(t, Info::new);
+  private static final class Indexed<T> {
+    private final @NotNull ArrayList<T> vertices = new ArrayList<>();
+    private final @NotNull HashMap<T, Integer> ids = new HashMap<>();
+    private final int @NotNull [] offsets;
+    private final int @NotNull [] targets;
+
+    private Indexed(@NotNull MutableGraph<T> graph) {
+      var sucs = new ArrayList<MutableList<T>>(graph.E.size());
+      graph.E.forEach((v, suc) -> {
+        id(v);
+        sucs.add(suc);
+      });
+      offsets = new int[sucs.size() + 1];
+      var edges = 0;
+      for (var v = 0; v < sucs.size(); v++) {
+        edges += sucs.get(v).size();
+        offsets[v + 1] = edges;
+      }
+      targets = new int[edges];
+      var e = 0;
+      for (var suc : sucs) for (var w : suc) targets[e++] = id(w);
     }
 
-    private void push(@NotNull T v) {
-      stack.push(v);
-      info(v).free = true;
+    private int id(@NotNull T vertex) {
+      var id = ids.get(vertex);
+      if (id != null) return id;
+      ids.put(vertex, vertices.size());
+      vertices.add(vertex);
+      return vertices.size() - 1;
     }
 
-    private @NotNull T pop() {
-      var v = stack.pop();
-      info(v).free = false;
-      return v;
+    private int size() {
+      return vertices.size();
     }
 
-    public void makeSCC(@NotNull T v) {
-      var infoV = info(v);
-      infoV.index = infoV.lowlink = index++;
-      push(v);
-
-      suc(v).forEach(w -> {
-        var infoW = info(w);
-        if (infoW.noIndex()) {
-          makeSCC(w);
-          infoV.lowlink = Math.min(infoV.lowlink, infoW.lowlink);
-        } else if (infoW.free) {
-          // successor `w` is in stack and free, so it is in the current SCC.
-          // If `w` is not free, then (v, w) is an edge pointing to an SCC already found,
-          // we must ignore `w` or we will get more than one `w` in topological order.
-          infoV.lowlink = Math.min(infoV.lowlink, infoW.index);
-        }
-      });
+    /** Successors of the vertices which are not keys, which have none */
+    private int begin(int v) {
+      return v < offsets.length - 1 ? offsets[v] : 0;
+    }
 
-      // If v is a root node, pop the stack and generate an SCC
-      if (infoV.lowlink == infoV.index) {
-        var scc = MutableList.<T>create();
-        T t = null;
-        while (v != t) {
-          t = pop();
-          scc.append(t);
-        }
-        SCCs.append(scc.toImmutableSeq());
-      }
+    private int end(int v) {
+      return v < offsets.length - 1 ? offsets[v + 1] : 0;
     }
 
-    public ImmutableSeq<ImmutableSeq<T>> tarjan() {
-      // view should be lazy or this code will blow up
-      E.keysView().filter(v -> info(v).noIndex()).forEach(this::makeSCC);
+    /**
+     * Find strongly connected components by Tarjan's algorithm, with an explicit call stack,
+     * and return the topological order (need reversing) of the components.
+     */
+    private @NotNull ImmutableSeq<ImmutableSeq<T>> tarjan() {
+      var n = size();
+      var index = new int[n];
+      var lowlink = new int[n];
+      Arrays.fill(index, -1);
+      // vertices on the stack, which are `free` in the sense that their SCCs are not found yet
+      var free = new boolean[n];
+      var stack = new int[n];
+      var stackTop = 0;
+      // the call stack, and the next edge to visit of each call
+      var calls = new int[n];
+      var cursor = new int[n];
+      var callTop = 0;
+      var counter = 0;
+      var SCCs = MutableList.<ImmutableSeq<T>>create();
+      for (var root = 0; root < n; root++) {
+        if (index[root] != -1) continue;
+        index[root] = lowlink[root] = counter++;
+        stack[stackTop++] = root;
+        free[root] = true;
+        calls[callTop] = root;
+        cursor[callTop++] = begin(root);
+        while (callTop > 0) {
+          var v = calls[callTop - 1];
+          if (cursor[callTop - 1] < end(v)) {
+            var w = targets[cursor[callTop - 1]++];
+            if (index[w] == -1) {
+              index[w] = lowlink[w] = counter++;
+              stack[stackTop++] = w;
+              free[w] = true;
+              calls[callTop] = w;
+              cursor[callTop++] = begin(w);
+            } else if (free[w]) {
+              // successor `w` is in stack and free, so it is in the current SCC.
+              // If `w` is not free, then (v, w) is an edge pointing to an SCC already found,
+              // we must ignore `w` or we will get more than one `w` in topological order.
+              lowlink[v] = Math.min(lowlink[v], index[w]);
+            }
+            continue;
+          }
+          callTop--;
+          // If v is a root node, pop the stack and generate an SCC
+          if (lowlink[v] == index[v]) {
+            var scc = MutableList.<T>create();
+            int t;
+            do {
+              t = stack[--stackTop];
+              free[t] = false;
+              scc.append(vertices.get(t));
+            } while (t != v);
+            SCCs.append(scc.toImmutableSeq());
+          }
+          if (callTop > 0) {
+            var parent = calls[callTop - 1];
+            lowlink[parent] = Math.min(lowlink[parent], lowlink[v]);
+          }
+        }
+      }
       return SCCs.toImmutableSeq();
     }
   }
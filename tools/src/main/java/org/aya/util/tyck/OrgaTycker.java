@@ -26,7 +26,8 @@ public interface OrgaTycker<T, E extends Exception> {
     else skip(sccTycker.tyckSCC(scc.filterNot(skipped::contains)));
   }
 
-  private void skip(@NotNull ImmutableSeq<T> failed) {
+  /** Mark the failed items and all their transitive usages as skipped. */
+  default void skip(@NotNull ImmutableSeq<T> failed) {
     var skipped = skippedSet();
     failed.forEach(f -> skip(skipped, f));
   }
@@ -3,6 +3,7 @@
 package org.aya.util;
 
 import kala.collection.Seq;
+import kala.collection.immutable.ImmutableSeq;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -37,4 +38,24 @@ public class UtilTest {
     assertEquals("114514", Version.create("114514").toString());
     assertThrows(IllegalArgumentException.class, () -> Version.create(""));
   }
+
+  @Test public void graph() {
+    var graph = MutableGraph.<Integer>create();
+    graph.sucMut(1).appendAll(Seq.of(2, 3));
+    graph.sucMut(2).append(1);
+    graph.sucMut(3).append(4);
+    graph.sucMut(5).append(5);
+    assertEquals(ImmutableSeq.of(ImmutableSeq.of(4), ImmutableSeq.of(3), ImmutableSeq.of(2, 1), ImmutableSeq.of(5)),
+      graph.topologicalOrder());
+    assertEquals(ImmutableSeq.of(ImmutableSeq.of(2, 1)), graph.findCycles());
+    assertTrue(graph.hasPath(2, 4));
+    assertFalse(graph.hasPath(4, 1));
+    assertEquals(ImmutableSeq.of(2), graph.transpose().suc(1).toImmutableSeq());
+    assertEquals(ImmutableSeq.of(3), graph.transpose().suc(4).toImmutableSeq());
+    // deep enough to overflow the stack of a recursive search
+    var chain = MutableGraph.<Integer>create();
+    for (var i = 0; i < 1_000_000; i++) chain.sucMut(i).append(i + 1);
+    assertEquals(1_000_001, chain.topologicalOrder().size());
+    assertTrue(chain.hasPath(0, 1_000_000));
+  }
 }